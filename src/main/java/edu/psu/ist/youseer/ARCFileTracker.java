@@ -0,0 +1,214 @@
+package edu.psu.ist.youseer;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Title: ARCFileTracker</p>
+ *
+ * <p>Description: Keeps track of the records of one ARC file that are still being processed. The reader registers every
+ * record it hands to the workers, and every record is acknowledged once it's either accepted by the index or logged to the
+ * SubmissionErrors table. When the reader is done with the file and the last record is acknowledged, the submitter is
+ * notified so it can commit the index and mark the file as submitted, while the reader has already moved on to the next
+ * file.
+ * The tracker also knows which records are acknowledged, so it gives the position from which the file can be read again
+ * without losing a record: the first record that isn't acknowledged yet, or the record following the last one read when
+ * all of them are. That position is written to the ARCCheckpoints table while the file is processed, so a run that was
+ * interrupted resumes the file from there instead of from its first record.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class ARCFileTracker {
+
+    private ARCSubmitter parent;
+
+    private File file;
+
+    /**
+     * The records not yet acknowledged, plus one held by the reader until it finishes reading the file
+     */
+    private AtomicInteger outstanding = new AtomicInteger(1);
+
+    private CountDownLatch completed = new CountDownLatch(1);
+
+    private volatile boolean failed = false;
+
+    /**
+     * The index and the offset in the file of the records submitted and not yet acknowledged
+     */
+    private TreeMap<Integer, Long> unacknowledged = new TreeMap<Integer, Long>();
+
+    /**
+     * The index and the offset of the last record read, -1 until a record is read
+     */
+    private int lastIndex = -1;
+
+    private long lastOffset = 0;
+
+    /**
+     * The resume index of the last checkpoint written, the records before it don't need to be read again
+     */
+    private int checkpointed = 0;
+
+    /**
+     * Set once the last record is acknowledged, no checkpoint is written after that
+     */
+    private boolean closed = false;
+
+    public ARCFileTracker(ARCSubmitter parent, File file) {
+        this(parent, file, null);
+    }
+
+    /**
+     *
+     * @param parent ARCSubmitter
+     * @param file File the ARC file
+     * @param resumed Checkpoint the checkpoint the file is resumed from, null if it's read from the beginning
+     */
+    public ARCFileTracker(ARCSubmitter parent, File file, Checkpoint resumed) {
+        this.parent = parent;
+        this.file = file;
+        if (resumed != null)
+            this.checkpointed = resumed.ResumeIndex;
+    }
+
+    /**
+     * Called by the reader before a record is handed to the workers
+     * @param recordIndex int the index of the record in the file
+     * @param recordOffset long the offset of the record in the file
+     */
+    public synchronized void recordSubmitted(int recordIndex, long recordOffset) {
+        this.outstanding.incrementAndGet();
+        this.unacknowledged.put(Integer.valueOf(recordIndex), Long.valueOf(recordOffset));
+        this.lastIndex = recordIndex;
+        this.lastOffset = recordOffset;
+    }
+
+    /**
+     * Called by the reader for a record that is not handed to the workers (unwanted type, error status, unreadable)
+     * @param recordIndex int the index of the record in the file
+     * @param recordOffset long the offset of the record in the file
+     */
+    public synchronized void recordSkipped(int recordIndex, long recordOffset) {
+        this.lastIndex = recordIndex;
+        this.lastOffset = recordOffset;
+    }
+
+    /**
+     * Called once for every submitted record, after the record was indexed or logged as an error
+     * @param recordIndex int the index of the record in the file
+     */
+    public void recordAcknowledged(int recordIndex) {
+        synchronized (this) {
+            this.unacknowledged.remove(Integer.valueOf(recordIndex));
+        }
+        this.release();
+    }
+
+    private void release() {
+        if (this.outstanding.decrementAndGet() == 0) {
+            synchronized (this) {
+                this.closed = true;
+            }
+            try {
+                this.parent.FileCompleted(this);
+            } finally {
+                this.completed.countDown();
+            }
+        }
+    }
+
+    /**
+     * Called by the reader when it has read all the records of the file
+     * @param success boolean false if the file couldn't be read completely, in that case it's not marked as submitted
+     */
+    public void readingFinished(boolean success) {
+        if (!success)
+            this.failed = true;
+        this.release();
+    }
+
+    /**
+     * @return Checkpoint the position from which the file can be resumed, null if it didn't move since the last checkpoint
+     */
+    public synchronized Checkpoint getCheckpoint() {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.Path = this.file.getAbsolutePath();
+        if (!this.unacknowledged.isEmpty()) { // Resume at the first record that may not be in the index
+            Map.Entry<Integer, Long> first = this.unacknowledged.firstEntry();
+            checkpoint.SeekIndex = first.getKey().intValue();
+            checkpoint.SeekOffset = first.getValue().longValue();
+            checkpoint.ResumeIndex = checkpoint.SeekIndex;
+        } else if (this.lastIndex >= 0) { // Everything read is acknowledged, only the last record is read again and skipped
+            checkpoint.SeekIndex = this.lastIndex;
+            checkpoint.SeekOffset = this.lastOffset;
+            checkpoint.ResumeIndex = this.lastIndex + 1;
+        } else
+            return null;
+        if (checkpoint.ResumeIndex <= this.checkpointed)
+            return null;
+        return checkpoint;
+    }
+
+    /**
+     * Queues the checkpoint to the journal, unless the file is already completed, in which case its checkpoint is cleared
+     * @param checkpoint Checkpoint a checkpoint of this file, covered by a commit of the index
+     * @return boolean true if the checkpoint was queued
+     */
+    public synchronized boolean writeCheckpoint(Checkpoint checkpoint) {
+        if (this.closed || checkpoint.ResumeIndex <= this.checkpointed)
+            return false;
+        this.parent.Journal.Checkpoint(checkpoint);
+        this.checkpointed = checkpoint.ResumeIndex;
+        return true;
+    }
+
+    /**
+     * @return boolean true if the file was resumed from a checkpoint or a checkpoint was written for it
+     */
+    public synchronized boolean isCheckpointed() {
+        return this.checkpointed > 0;
+    }
+
+    /**
+     * Waits until all the records of the file are acknowledged
+     * @param timeout long the maximum time to wait
+     * @param unit TimeUnit the unit of the timeout
+     * @return boolean true if the file is completed
+     * @throws InterruptedException
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.completed.await(timeout, unit);
+    }
+
+    /**
+     * @return boolean true if all the records of the file were read
+     */
+    public boolean isReadCompletely() {
+        return !this.failed;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * The position from which an ARC file is read again: the reader seeks to SeekOffset, counts the records from SeekIndex,
+     * and skips the records before ResumeIndex, which are already in the index
+     */
+    public static class Checkpoint {
+        public String Path;
+        public long SeekOffset;
+        public int SeekIndex;
+        public int ResumeIndex;
+    }
+}
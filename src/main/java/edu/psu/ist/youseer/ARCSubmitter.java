@@ -3,24 +3,23 @@ package edu.psu.ist.youseer;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.sql.*;
 import java.text.Format;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Vector;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.HttpState;
-import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
-import org.apache.commons.httpclient.auth.AuthScope;
-import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.methods.RequestEntity;
-import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.Header;
 import org.archive.io.arc.*;
 
 /**
@@ -30,13 +29,18 @@ import org.archive.io.arc.*;
  * The default database is SQLite, but if you prefer to use a server side database, feel free to modify the configuration file
  * and provide the connection string for the database.
  * This class creates a thread pool of Worker runnables to handle the ARC records retrieved from the ARC file.
+ * The ARC files themselves are read by a smaller pool of readers, so several (gzipped) files can be decompressed at the same time.
  * The order of tasks as follows: 1) parse the input parameters, 2) parse the configuration files and build a configuration object, 3)
  * Establish the database connection, 4) iterate through the input folder and process all the (new) ARC fields in it (Depth First). 5) for each ARC record
  *  in the ARC file, this class creates a SubmitterDocument object and submit the object to the thread pool for processing.
- * After processing the entire ARC file, the log is inserted to the database and the thread waits for the thread pool to
- * finish executing before reading the next ARC file.
+ * Every ARC file has a tracker that counts its records still being processed. When the last record of a file is
+ * acknowledged the index is committed and the log is inserted to the database, meanwhile the reader moves on to the next
+ * ARC file.
  * When it finish processing all the files in the folder, the thread waits for a specified period (default is 5 minutes) before making another scan
  * in the folder to find new ARC files. Thus it can run in parallel with the crawler and waits for the new dumps.
+ * Meanwhile the folder is watched (see FolderWatcher), and an ARC file closed by Heritrix is queued as soon as it's renamed,
+ * the periodic scan only catches what the watcher missed. With a waiting time of 0 the folder is scanned once and the
+ * submitter exits.
  * </p>
  *
  * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
@@ -66,9 +70,9 @@ public class ARCSubmitter {
      */
     public URL URL;
     /**
-     * Number of documents submitted so far
+     * Number of documents submitted so far, counted by the journal thread
      */
-    public long Count = 0;
+    public AtomicLong Count = new AtomicLong();
     /**
      * Configuration object
      */
@@ -77,15 +81,84 @@ public class ARCSubmitter {
      * The number of threads for processing the documents, default is 1
      */
     public int threadsCount = 1;
-    public ExecutorService threadExecutor;
     /**
-     * Queue containing the waiting jobs in the thread pool
+     * The pool of workers, its queue is bounded so the reader blocks when the workers can't keep up
      */
-    public BlockingQueue<Runnable> WaitQueue;
+    public WorkerPool threadExecutor;
     /**
-     * List of documents that have been indexed but not yet inserted to the database
+     * The extract, serialize and submit stages, fed by the pool of workers that decodes the records
      */
-    public Vector<SubmitterDocument> IndexedDocs = new Vector<SubmitterDocument>();
+    public PipelineStage Extractors, Serializers, Submitters;
+    /**
+     * The threads sending the batches to the index, one per batch, null when the submit threads send them
+     */
+    public PipelineStage Senders;
+    /**
+     * HTTP client shared by all the workers, it keeps the connections to the index alive between documents
+     */
+    public SubmissionClient Client;
+    /**
+     * Collects the documents of all the workers and sends them to the index in batches
+     */
+    public BatchSubmitter Batcher;
+    /**
+     * The Tika parsers of the indexed data types, shared by all the workers
+     */
+    public ParserRegistry Parsers;
+    /**
+     * The SimHashes of the submitted documents, null when the near duplicates are not looked for
+     */
+    public NearDuplicateIndex Duplicates;
+    /**
+     * The hashes of the content the pages were indexed with, loaded from the database at startup, null when the unchanged
+     * records are not skipped
+     */
+    public ContentFingerprintStore Fingerprints;
+    /**
+     * The numbers of the ARC files and the dictionary of the URLs, null unless the compact schema is used
+     */
+    public CompactSchema Schema;
+    /**
+     * The ARC files that have records still being processed
+     */
+    public Set<ARCFileTracker> PendingFiles = Collections.newSetFromMap(new ConcurrentHashMap<ARCFileTracker, Boolean>());
+    /**
+     * The pool of threads reading the ARC files, it reads several files at the same time and feeds the pool of workers
+     */
+    public ExecutorService Readers;
+    /**
+     * The absolute paths of the ARC files queued or being read by the readers
+     */
+    public Set<String> ReadingFiles = new HashSet<String>();
+    /**
+     * The absolute paths of the ARC files queued and not yet recorded in the database, so the watcher and the periodic
+     * scan don't queue a file twice
+     */
+    public Set<String> ActiveFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * Queues the ARC files as soon as they appear in the folder, null when the folder isn't watched
+     */
+    public FolderWatcher Watcher;
+    /**
+     * Walks the folder in parallel, skipping the folders that didn't change since they were completely submitted
+     */
+    public FolderScanner Scanner;
+    /**
+     * The connections to the bookkeeping database
+     */
+    public DBConnectionPool DBPool;
+    /**
+     * The hashes of the paths of the submitted ARC files, loaded from the database at startup
+     */
+    public SubmittedFileIndex SubmittedFiles = new SubmittedFileIndex();
+    /**
+     * Writes the indexed documents, the submission errors and the submitted ARC files to the database in the background
+     */
+    public IndexJournal Journal;
+    /**
+     * Commits the index and saves the position reached in the ARC files at a regular interval
+     */
+    public CheckpointWriter Checkpoints;
     /**
      * Line separator
      */
@@ -113,10 +186,6 @@ public class ARCSubmitter {
                 } catch (Exception e) {
                     submitter.threadsCount = 1; // Ten minutes
                 }
-                submitter.threadExecutor = Executors.newFixedThreadPool(submitter.
-                        threadsCount);
-                submitter.WaitQueue = ((ThreadPoolExecutor) submitter.
-                                         threadExecutor).getQueue();
                 if (args.length == 5) {
                     try {
                         waitingTime = Integer.parseInt(args[4]);
@@ -145,6 +214,41 @@ public class ARCSubmitter {
                     submitter.Config.IndexURL = new URL(args[0]);
                     submitter.Config.OriginalPart = args[1];
                     submitter.Config.CacheFolder = args[2];
+                    submitter.Parsers = new ParserRegistry(submitter.Config.IndexedTypes,
+                            new ParseWatchdog(submitter.Config.ParseTimeout, submitter.Config.MaxParsedChars));
+                    if (!submitter.Config.NearDuplicates.equals("off"))
+                        submitter.Duplicates = new NearDuplicateIndex(submitter.Config.NearDuplicateDistance,
+                                submitter.Config.NearDuplicateCapacity, submitter.Config.NearDuplicates.equals("pointer"));
+                    submitter.Batcher = new BatchSubmitter(submitter);
+                    submitter.Journal = new IndexJournal(submitter);
+                    submitter.Checkpoints = new CheckpointWriter(submitter);
+                    boolean virtualIO = submitter.Config.IOThreads.equals("virtual");
+                    // The threads given on the command line are the default of the CPU bound extract stage, unless the
+                    // I/O runs on its own threads and the extraction only needs a thread per core
+                    int extractThreads = submitter.Config.ExtractThreads > 0 ? submitter.Config.ExtractThreads :
+                                         virtualIO ? Runtime.getRuntime().availableProcessors() : submitter.threadsCount;
+                    submitter.Client = new SubmissionClient(submitter.URL, submitter.Config.SubmitThreads +
+                            (virtualIO ? submitter.Config.MaxConcurrentSubmissions : 0));
+                    submitter.threadExecutor = new WorkerPool(submitter.Config.DecodeThreads,
+                            submitter.Config.QueueRecords, submitter.Config.QueueBytes);
+                    submitter.Extractors = new PipelineStage("extract", extractThreads, submitter.Config.StageQueueSize);
+                    submitter.Serializers = new PipelineStage("serialize", submitter.Config.SerializeThreads,
+                                                              submitter.Config.StageQueueSize);
+                    submitter.Submitters = new PipelineStage("submit", submitter.Config.SubmitThreads,
+                                                             submitter.Config.StageQueueSize);
+                    if (virtualIO) { // The submit threads only fill the batches
+                        ThreadFactory factory = PipelineStage.VirtualThreads("send");
+                        if (factory == null) {
+                            System.err.println("Virtual threads are not available on this JDK, a platform thread is " +
+                                               "started per batch");
+                            factory = PipelineStage.PlatformThreads("send");
+                        }
+                        submitter.Senders = new PipelineStage("send", submitter.Config.MaxConcurrentSubmissions, factory);
+                    }
+                    submitter.Readers = Executors.newFixedThreadPool(submitter.Config.ReaderThreads);
+                    BufferArena.setMaxRetained(submitter.Config.MaxRetainedBuffer);
+                    submitter.Scanner = new FolderScanner(submitter, submitter.Config.ScanThreads > 0 ?
+                            submitter.Config.ScanThreads : Runtime.getRuntime().availableProcessors());
                     if (!submitter.setupDBConnection()) {                        
                         System.out.println("Couldn't Setup Database Connection");
                         System.err.println(
@@ -157,34 +261,72 @@ public class ARCSubmitter {
                     return;
                 }
 
+                if (waitingTime > 0 && submitter.Config.WatchFolders) {
+                    try { // Watch before the first scan, so no file falls between them
+                        submitter.Watcher = new FolderWatcher(submitter, submitter.OriginalPart);
+                    } catch (IOException ex) {
+                        Logger.getLogger(Worker.class.getName()).log(Level.WARNING,
+                                "Couldn't watch the folder, relying on the periodic scan", ex);
+                    }
+                }
+
                 while (true) {
 
                     submitter.ProcessFolder(submitter.OriginalPart);
 
                     try {
 
-                        // Wait for the other threads to finish
-                        while (submitter.WaitQueue.size() > 0) {
-
-                            Thread.currentThread().sleep(1000);
-
+                        // Wait for the records of all the files to be acknowledged
+                        submitter.AwaitPendingFiles();
+
+                        if (waitingTime == 0) {
+                            submitter.threadExecutor.shutdown();
+                            submitter.threadExecutor.awaitTermination(60 * 60,
+                                    java.util.concurrent.TimeUnit.SECONDS); // Wait for thread pool to shut down
+                            PipelineStage[] stages = {submitter.Extractors, submitter.Serializers, submitter.Submitters};
+                            for (int i = 0; i < stages.length; i++) { // Every record is acknowledged, the stages are idle
+                                stages[i].shutdown();
+                                stages[i].awaitTermination(60 * 60, java.util.concurrent.TimeUnit.SECONDS);
+                            }
                         }
-
-                        submitter.threadExecutor.shutdown();
-                        submitter.threadExecutor.awaitTermination(60 * 60,
-                                java.util.concurrent.TimeUnit.SECONDS); // Wait for thread pool to shut down
+                        submitter.Batcher.flush(); // Send the documents left in the last batch
                         String result = submitter.sendPostCommand("<commit/>", submitter.URL);
                         System.err.println("Commenting result is: " + result);
                         System.out.println("Commenting result is: " + result);
                         Format formatter = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
 
                         System.out.println(formatter.format(new Date()) +": Total Submitted Jobs: " +
-                                           submitter.Count);
+                                           submitter.Count.get());
                         System.err.println(formatter.format(new Date()) + " : Total Submitted Jobs: " +
-                                           submitter.Count);
-
-                        if (waitingTime == 0)
+                                           submitter.Count.get());
+                        System.err.println(formatter.format(new Date()) + " : " +
+                                           submitter.threadExecutor.getStatus() + ", " + submitter.Extractors.getStatus() +
+                                           ", " + submitter.Serializers.getStatus() + ", " +
+                                           submitter.Submitters.getStatus() + ", " +
+                                           (submitter.Senders == null ? "" : submitter.Senders.getStatus() + ", ") +
+                                           BufferArena.getStatus() + ", " +
+                                           "Journal backlog: " + submitter.Journal.getPending() + " rows, " +
+                                           submitter.Parsers.getStatus() +
+                                           (submitter.Duplicates == null ? "" : ", " + submitter.Duplicates.getStatus()) +
+                                           (submitter.Fingerprints == null ? "" : ", " + submitter.Fingerprints.getStatus()));
+
+                        if (waitingTime == 0) {
+                            if (submitter.Watcher != null)
+                                submitter.Watcher.shutdown();
+                            submitter.Scanner.shutdown();
+                            submitter.Parsers.shutdown();
+                            submitter.Readers.shutdown();
+                            submitter.Batcher.shutdown();
+                            if (submitter.Senders != null) { // The last batch is sent before the client is closed
+                                submitter.Senders.shutdown();
+                                submitter.Senders.awaitTermination(60 * 60, java.util.concurrent.TimeUnit.SECONDS);
+                            }
+                            submitter.Checkpoints.shutdown();
+                            submitter.Client.shutdown();
+                            submitter.Journal.Shutdown();
+                            submitter.DBPool.close();
                             break;
+                        }
 
                         Thread.currentThread().sleep(waitingTime); // Wait the specified wait time from the input params
                     } catch (Exception ex) {
@@ -192,11 +334,8 @@ public class ARCSubmitter {
                         ex.printStackTrace();
                     }
 
-                    submitter.threadExecutor = Executors.newFixedThreadPool(
-                            submitter.threadsCount); // Create a new thread pool
-                    submitter.WaitQueue = ((ThreadPoolExecutor) submitter.
-                                             threadExecutor).getQueue(); // The waiting jobs in the pool
-                    submitter.Count = 0; // restart the counter
+                    // The pool of workers is kept, the watcher may be feeding it already
+                    submitter.Count.set(0); // restart the counter
 
                 }
             } catch (MalformedURLException ex) {
@@ -234,238 +373,598 @@ public class ARCSubmitter {
          All these ideas, or probably some other better ideas, are left to the user to implement. Or simply, rely on the simplified
          schema we provide. Please note that if you don't plan to crawl multiple versions of the same URL, then this schema will
          be very efficient, and you don't need any type of Unique ID or Hash Value.
+
+         The compactSchema setting takes the hashing route: the pages are keyed by the 64 bit hash of their URL, the URLs
+         are stored once in a dictionary table and the ARC files are numbered, see CompactSchema.
          */
-        Class.forName(this.Config.DatabaseProvider);
-        Connection myConn = DriverManager.getConnection(this.Config.
-                DBConnectionString);
-        Statement stat = myConn.createStatement();
+        int poolSize = this.Config.DBPoolSize;
+        if (poolSize == 0) // SQLite accepts a single writer, more connections would only wait on its lock
+            poolSize = this.Config.DatabaseProvider.toLowerCase().indexOf("sqlite") >= 0 ? 1 : this.threadsCount + 1;
+        boolean sqlite = this.Config.DatabaseProvider.toLowerCase().indexOf("sqlite") >= 0;
+        List<String> pragmas = new ArrayList<String>();
+        if (sqlite) { // WAL lets the scans read while the journal writes, and needs a sync only at checkpoints
+            if (this.Config.SQLiteJournalMode != null)
+                pragmas.add("PRAGMA journal_mode=" + this.Config.SQLiteJournalMode + ";");
+            if (this.Config.SQLiteSynchronous != null)
+                pragmas.add("PRAGMA synchronous=" + this.Config.SQLiteSynchronous + ";");
+            if (this.Config.SQLiteCacheSize != 0)
+                pragmas.add("PRAGMA cache_size=" + this.Config.SQLiteCacheSize + ";");
+        }
+        this.DBPool = new DBConnectionPool(this.Config.DatabaseProvider, this.Config.DBConnectionString, poolSize,
+                                           pragmas);
+        DBConnectionPool.PooledConnection conn = this.DBPool.borrow();
+        Statement stat = conn.getConnection().createStatement();
         stat.executeUpdate(
                 "create table if not exists SubmittedARCFiles (Path VARCHAR(255) PRIMARY KEY, SubmitionTime DATE) ;");
         stat.executeUpdate(
                 "create table if not exists IndexedPages (Url VARCHAR(512), IndexingTime DATE ,FileType VARCHAR(100), ContainingFile VARCHAR(255),RecordOffset Integer, PRIMARY KEY (Url, IndexingTime));");
         stat.executeUpdate(
-                "create table if not exists SubmissionErrors (Url VARCHAR(512), IndexingTime DATE ,FileType VARCHAR(100), ContainingFile VARCHAR(255),RecordOffset Integer, ErrorMessage VARCHAR(500),PRIMARY KEY (Url, IndexingTime) ) ;");
-        myConn.close();
+                "create table if not exists ContentFingerprints (UrlHash BIGINT PRIMARY KEY, ContentHash BIGINT, LastSeen DATE);");
+        stat.executeUpdate(
+                "create table if not exists NearDuplicates (Url VARCHAR(512), IndexingTime DATE, ContainingFile VARCHAR(255), RecordOffset Integer, CanonicalUrl VARCHAR(512), Distance Integer, CanonicalId BIGINT, CanonicalFile VARCHAR(255), CanonicalOffset Integer, PRIMARY KEY (Url, IndexingTime));");
+        stat.executeUpdate(
+                "create table if not exists ARCCheckpoints (Path VARCHAR(255) PRIMARY KEY, SeekOffset BIGINT, SeekIndex Integer, ResumeIndex Integer, UpdateTime DATE) ;");
+        stat.executeUpdate(
+                "create table if not exists SubmissionErrors (Url VARCHAR(512), IndexingTime DATE ,FileType VARCHAR(100), ContainingFile VARCHAR(255),RecordOffset Integer, ErrorMessage VARCHAR(500), Reason VARCHAR(32),PRIMARY KEY (Url, IndexingTime) ) ;");
+        try { // The tables created before the reasons were recorded
+            stat.executeUpdate("alter table SubmissionErrors add column Reason VARCHAR(32);");
+        } catch (SQLException ex) {
+            // The column already exists
+        }
+        String[] canonicalColumns = {"CanonicalId BIGINT", "CanonicalFile VARCHAR(255)", "CanonicalOffset Integer"};
+        for (int i = 0; i < canonicalColumns.length; i++) {
+            try { // The tables created before the canonical documents were located
+                stat.executeUpdate("alter table NearDuplicates add column " + canonicalColumns[i] + ";");
+            } catch (SQLException ex) {
+                // The column already exists
+            }
+        }
+        String[] indexes = {
+                "create index if not exists IndexedPagesContainingFile on IndexedPages (ContainingFile);",
+                "create index if not exists SubmissionErrorsContainingFile on SubmissionErrors (ContainingFile);"};
+        if (this.Config.CompactSchema) {
+            for (int i = 0; i < CompactSchema.TABLES.length; i++)
+                stat.executeUpdate(CompactSchema.TABLES[i]);
+            String[] all = new String[indexes.length + CompactSchema.INDEXES.length];
+            System.arraycopy(indexes, 0, all, 0, indexes.length);
+            System.arraycopy(CompactSchema.INDEXES, 0, all, indexes.length, CompactSchema.INDEXES.length);
+            indexes = all;
+        }
+        for (int i = 0; i < indexes.length; i++) {
+            try {
+                stat.executeUpdate(indexes[i]);
+            } catch (SQLException ex) { // Not every database accepts "if not exists" for indexes, the index may already exist
+                Logger.getLogger(Worker.class.getName()).log(Level.INFO, "Couldn't create index: " + ex.getMessage());
+            }
+        }
+        stat.close();
+        this.DBPool.release(conn);
+        this.SubmittedFiles.Load(this.DBPool);
+        if (this.Config.CompactSchema) {
+            this.Schema = new CompactSchema();
+            this.Schema.Load(this.DBPool);
+        }
+        if (this.Config.SkipUnchanged) {
+            this.Fingerprints = new ContentFingerprintStore();
+            this.Fingerprints.Load(this.DBPool);
+        }
         return true;
 
     }
 
     /**
-     * Inserts this file to the database when the submitter completes processing all its records
-     * @param fi File the file to be inserted to the database. It only inserts the full path of the file
-     * @return boolean true if the insert was committed, otherwise false
+     * Inserts a log entry to the database that the document wasn't submitted to the index. The entry is written by the journal
+     * @param doc SubmitterDocument the document that failed
+     * @param result String The exception error message
+     * @return boolean true if the entry was queued
      */
-    private boolean InsertToDB(File fi) {
-        try {
-            Class.forName(this.Config.DatabaseProvider);
-            Connection myConn = DriverManager.getConnection(
-                    this.Config.DBConnectionString);
-            Statement stat = myConn.createStatement();
-            PreparedStatement prep = myConn.prepareStatement(
-                    "insert into SubmittedARCFiles (Path, SubmitionTime) values (?, ?);");
-            java.util.Date fromDate = new java.util.Date();
-            prep.setString(1, fi.getAbsolutePath());
-            prep.setTimestamp(2, new Timestamp(fromDate.getTime()));
-            prep.addBatch();
-            prep.executeBatch();
-            return true;
+    public boolean InsertErrorToDB(SubmitterDocument doc, String result) {
+        this.Journal.Failed(doc, result);
+        return true;
+    }
 
-        } catch (Exception ex) {
-            Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, "", ex);
-            return false;
-        }
+    /**
+     * Inserts a log entry to the database that the document wasn't submitted to the index, with the code of the failure
+     * @param doc SubmitterDocument the document that failed
+     * @param reason String the code of the failure
+     * @param result String The exception error message
+     * @return boolean true if the entry was queued
+     */
+    public boolean InsertErrorToDB(SubmitterDocument doc, String reason, String result) {
+        this.Journal.Failed(doc, reason, result);
+        return true;
     }
 
     /**
-     * Check whether the file has been already submitted to the index or not
+     * Check whether the file has been already submitted to the index or not. The in-memory map of submitted paths answers
+     * the check, the database is only queried when the path has the hash of another submitted file
      * @param fi File The file to be checked
      * @return boolean True if found in the database, false otherwise
      */
     private boolean IsIndexed(File fi) {
+        if (this.SubmittedFiles.Lookup(fi.getAbsolutePath()) == SubmittedFileIndex.NOT_SUBMITTED)
+            return false;
+        // A submitted file has the same hash, most likely this one, only the database knows
+        DBConnectionPool.PooledConnection conn = null;
         try {
-            Class.forName(this.Config.DatabaseProvider);
-            Connection myConn = DriverManager.getConnection(
-                    this.Config.DBConnectionString);
-            Statement stat = myConn.createStatement();
-            ResultSet rs = stat.executeQuery(
-                    "select * from SubmittedARCFiles where Path ='" +
-                    fi.getAbsolutePath() +
-                    "';");
-            boolean indexed = false;
-            while (rs.next()) {
-                indexed = true;
-                break;
-            }
+            conn = this.DBPool.borrow();
+            PreparedStatement prep = conn.prepare(DBConnectionPool.SELECT_SUBMITTED_FILE);
+            prep.setString(1, fi.getAbsolutePath());
+            ResultSet rs = prep.executeQuery();
+            boolean indexed = rs.next();
             rs.close();
-            myConn.close();
+            this.DBPool.release(conn);
             return indexed;
 
         } catch (Exception ex) {
             Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, null, ex);           
+            if (conn != null)
+                this.DBPool.discard(conn);
             return true;
         }
     }
 
     /**
-     * Process a folder full of ARC files, or subfolders containing ARC files. The exploring follows depth first paradigm
+     * Reads the checkpoint saved for an ARC file by a previous run that didn't complete it
+     * @param fi File the ARC file
+     * @return ARCFileTracker.Checkpoint the checkpoint, null if the file has to be read from the beginning
+     */
+    private ARCFileTracker.Checkpoint LoadCheckpoint(File fi) {
+        DBConnectionPool.PooledConnection conn = null;
+        try {
+            conn = this.DBPool.borrow();
+            PreparedStatement prep = conn.prepare(DBConnectionPool.SELECT_CHECKPOINT);
+            prep.setString(1, fi.getAbsolutePath());
+            ResultSet rs = prep.executeQuery();
+            ARCFileTracker.Checkpoint checkpoint = null;
+            if (rs.next()) {
+                checkpoint = new ARCFileTracker.Checkpoint();
+                checkpoint.Path = fi.getAbsolutePath();
+                checkpoint.SeekOffset = rs.getLong(1);
+                checkpoint.SeekIndex = rs.getInt(2);
+                checkpoint.ResumeIndex = rs.getInt(3);
+            }
+            rs.close();
+            this.DBPool.release(conn);
+            return checkpoint;
+
+        } catch (Exception ex) {
+            Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, "Couldn't read the checkpoint of " +
+                    fi.getAbsolutePath(), ex);
+            if (conn != null)
+                this.DBPool.discard(conn);
+            return null;
+        }
+    }
+
+    /**
+     * Process a folder full of ARC files, or subfolders containing ARC files. The folders are walked in parallel by the
+     * scanner, the folders that didn't change since all their files were submitted are not listed again.
      * For each file, the processor checks if the file has been indexed before, if so it ignores it. If the file is new then it
-     * iterates through all the ARC records in this file. For each ARC record (which contains the downloaded document and metadata
-     *  about it) it reads the document and its metadata, then it creates a SubmitterDocument object. This object will be submitted
-     * to the thread pool that is responsible of parsing, extracting and handling the data before submitting it to the index.
-     *
-     * After processing a file and before moving to the next file, it waits for the processing thread pool to finish executing
-     * and commit all the URLs to the database.
+     * is handed to the pool of readers as soon as it's found, which reads several ARC files at the same time (see ProcessARCFile).
      *
      * @param path String the absolute path of the containing folder
      */
     public void ProcessFolder(String path) {
         System.out.println("Processing: " + path);
         System.err.println("Processing: " + path);
-        File rootFolder = new File(path);
-        String[] arcFiles = rootFolder.list();
-        for (int i = 0; i < arcFiles.length; i++) {
-            File fi = new File(path + "/" + arcFiles[i]);
-            if (fi.isDirectory()) { // Going depth first
-                this.ProcessFolder(fi.getAbsolutePath());
-                continue;
-            }
-            if (fi.getAbsolutePath().endsWith("open")) {
-                continue; // File is still opened by Heritrix
+        this.Scanner.Scan(path);
 
-            }
-            if (this.IsIndexed(fi))
-                continue; // The ARC file has been already processed
-            else {
-
-                String content = "";
-                String skippedContent = "";
-                String entryURL = "";
-                SubmitterDocument doc;
-                ARCReader r = null;
-                try {
+    }
 
-                    r = org.archive.io.arc.ARCReaderFactory.get(new
-                            java.io.File(fi.getAbsolutePath()));
-                    System.out.println("Processing: " + fi.getAbsolutePath());
-                    boolean digest = false;
-                    boolean strict = false;
-                    boolean parse = true;
-                    r.setStrict(strict);
-                    r.setParseHttpHeaders(parse);
-                    r.setDigest(digest);
-
-                    int recordIndex = 0; // To keep track of the offset inside the ARC file
-                    for (Iterator iter = r.iterator(); iter.hasNext(); ) {
-                        ARCRecord record = (ARCRecord) iter.next();
-
-                        int offset = record.getBodyOffset();
-
-                        ARCRecordMetaData meta = record.getMetaData();
-                        entryURL = meta.getUrl();
-                        long recordLength = meta.getLength();
-                        if (!this.Config.IndexedTypes.contains(meta.getMimetype())) {
-                            System.err.println("Url: " + entryURL +
-                                               " was ignored as its data type is: " +
-                                               meta.getMimetype());
-                            recordIndex++;
-                            continue; // File is not wanted
-                        }
+    /**
+     * Hands an ARC file found by the scan or by the watcher to the readers, unless it's still written or already submitted
+     * @param fi File the ARC file
+     * @param containingFile String the path of the file as stored with its records
+     * @return boolean true if the file is queued or still being processed, false if there is nothing to do with it
+     */
+    public boolean QueueARCFile(File fi, String containingFile) {
+        if (fi.getAbsolutePath().endsWith("open")) {
+            return false; // File is still opened by Heritrix, it's renamed once closed
 
-                        Integer responseCode = new Integer(meta.getStatusCode());
-                        if (responseCode.intValue() >= 400) // Indicates an error
-                        {
-                            System.err.println("Url: " + entryURL +
-                                               " was ignored since the status code indicates an error: "
-                                               );
-                            recordIndex++;
-                            continue; // File is not wanted
+        }
+        if (this.ActiveFiles.contains(fi.getAbsolutePath()))
+            return true; // Queued already, maybe not yet recorded in the database
+        if (this.IsIndexed(fi))
+            return false; // The ARC file has been already processed
+        this.SubmitARCFile(fi, containingFile);
+        return true;
+    }
 
+    /**
+     * Called once the ARC file is recorded as submitted in the database, or once it's given up for this scan
+     * @param fi File the ARC file
+     */
+    public void FileRecorded(File fi) {
+        this.ActiveFiles.remove(fi.getAbsolutePath());
+    }
+
+    /**
+     * Hands an ARC file to the pool of readers, unless the file is already being read
+     * @param fi File the ARC file
+     * @param containingFile String the path of the file as stored with its records
+     */
+    public void SubmitARCFile(final File fi, final String containingFile) {
+        if (!this.ActiveFiles.add(fi.getAbsolutePath()))
+            return; // Already queued, being read or being completed
+        synchronized (this.ReadingFiles) {
+            this.ReadingFiles.add(fi.getAbsolutePath());
+        }
+        try {
+            this.Readers.execute(new Runnable() {
+                public void run() {
+                    try {
+                        ProcessARCFile(fi, containingFile);
+                    } finally {
+                        synchronized (ReadingFiles) {
+                            ReadingFiles.remove(fi.getAbsolutePath());
+                            ReadingFiles.notifyAll();
                         }
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            synchronized (this.ReadingFiles) {
+                this.ReadingFiles.remove(fi.getAbsolutePath());
+                this.ReadingFiles.notifyAll();
+            }
+            this.FileRecorded(fi);
+            Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, "Couldn't queue the ARC file " +
+                    fi.getAbsolutePath(), ex);
+        }
+    }
 
-                        // Just read and call the function
-                        if (meta.getMimetype().startsWith("text")) {
-                            content = this.ReadTextDocument(record, offset);
-                            doc = new SubmitterDocument(entryURL, content,
-                                    meta.getMimetype(),
-                                    path + "/" + arcFiles[i], recordIndex++);
-
-                        } else {
-                            byte[] buffer = this.ReadBinaryDocument(record,
-                                    offset,
-                                    (int) meta.getLength());
-                            if (buffer == null) {
-                                //log error to DB
-                                System.err.println("ARC record for the URL " + entryURL + "Couldn't be read. An exception was encountered");
-                                continue;
-                            }
-                            doc = new SubmitterDocument(entryURL, buffer,
-                                    meta.getMimetype(),
-                                    path + "/" + arcFiles[i], recordIndex++);
+    /**
+     * Iterates through all the ARC records in an ARC file. For each ARC record (which contains the downloaded document and
+     * metadata about it) it reads the document and its metadata, then it creates a SubmitterDocument object. This object will
+     * be submitted to the thread pool that is responsible of parsing, extracting and handling the data before submitting it
+     * to the index. This method runs on one of the reader threads, all the readers feed the same pool of workers.
+     * When a previous run saved a checkpoint for the file, the reader seeks to the checkpoint and skips the records that
+     * are already in the index. Uncompressed ARC files are memory mapped and the workers read the records from the mapping.
+     *
+     * @param fi File the ARC file
+     * @param containingFile String the path of the file as stored with its records
+     */
+    public void ProcessARCFile(File fi, String containingFile) {
+        ARCFileTracker.Checkpoint checkpoint = this.LoadCheckpoint(fi);
+        ARCFileTracker tracker = new ARCFileTracker(this, fi, checkpoint);
+        this.PendingFiles.add(tracker);
+        boolean success = false;
+        try {
 
-                        }
+            int recordIndex = 0; // To keep track of the offset inside the ARC file
+            int resumeIndex = 0; // The records before this one are already in the index
+            long start = 0;
+            if (checkpoint != null) {
+                start = checkpoint.SeekOffset;
+                recordIndex = checkpoint.SeekIndex;
+                resumeIndex = checkpoint.ResumeIndex;
+                System.err.println("Resuming: " + fi.getAbsolutePath() + " at record " + resumeIndex);
+            }
+            System.out.println("Processing: " + fi.getAbsolutePath());
+            if (this.Schema != null)
+                this.Schema.Register(containingFile, this.DBPool); // Numbered before any of its records is recorded
+            if (this.Config.MapUncompressedFiles && MappedARCReader.IsMappable(fi))
+                this.ReadMappedRecords(fi, containingFile, tracker, start, recordIndex, resumeIndex);
+            else
+                this.ReadRecords(fi, containingFile, tracker, start, recordIndex, resumeIndex);
+            success = true;
+            // The file is committed and marked as processed by FileCompleted, once its last record is acknowledged
 
-                        Worker wrkr = new Worker(this, doc);
+        } catch (Exception ex) {
+            Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, "Exception at the ARC processing part: " +
+                               ex.getMessage(), ex);
+        } finally {
+            tracker.readingFinished(success);
+        }
 
-                        // Submit the job to the thread pool
-                        this.threadExecutor.execute(wrkr);
+    }
 
-                    }
-                    this.InsertToDB(fi); // Insert the ARC file to the DB and mark it as processed
-                    while (this.WaitQueue.size() > 0) {
+    /**
+     * Reads the records of an ARC file with the Heritrix reader, the content of each record is copied to the document
+     * @param fi File the ARC file
+     * @param containingFile String the path of the file as stored with its records
+     * @param tracker ARCFileTracker the tracker of the file
+     * @param start long the offset of the first record to read
+     * @param recordIndex int the index of the first record to read
+     * @param resumeIndex int the index of the first record to submit
+     * @throws Exception
+     */
+    private void ReadRecords(File fi, String containingFile, ARCFileTracker tracker, long start, int recordIndex,
+                             int resumeIndex) throws Exception {
+        String content = "";
+        String entryURL = "";
+        SubmitterDocument doc;
+        ARCReader r = null;
+        try {
 
-                        Thread.currentThread().sleep(1000); // Wait for the thread pool to finish executing
+            if (start > 0)
+                r = ResumableARCReaderFactory.get(fi, start);
+            else
+                r = org.archive.io.arc.ARCReaderFactory.get(new
+                        java.io.File(fi.getAbsolutePath()));
+            boolean digest = false;
+            boolean strict = false;
+            boolean parse = true;
+            r.setStrict(strict);
+            r.setParseHttpHeaders(parse);
+            r.setDigest(digest);
+
+            for (Iterator iter = r.iterator(); iter.hasNext(); ) {
+                ARCRecord record = (ARCRecord) iter.next();
+
+                int offset = record.getBodyOffset();
+
+                ARCRecordMetaData meta = record.getMetaData();
+                entryURL = meta.getUrl();
+                long recordOffset = meta.getOffset();
+                if (recordIndex < resumeIndex) { // Processed before the checkpoint, the body isn't read
+                    tracker.recordSkipped(recordIndex++, recordOffset);
+                    continue;
+                }
+                if (!this.IsWanted(entryURL, meta.getMimetype(), new Integer(meta.getStatusCode()).intValue())) {
+                    tracker.recordSkipped(recordIndex, recordOffset);
+                    recordIndex++;
+                    continue; // File is not wanted
+                }
 
+                long length = meta.getLength() - offset;
+                if (this.IsTooLarge(entryURL, meta.getMimetype(), containingFile, recordIndex, length)) {
+                    tracker.recordSkipped(recordIndex++, recordOffset);
+                    continue;
+                }
+
+                // Just read and call the function
+                long contentHash;
+                if (meta.getMimetype().startsWith("text")) {
+                    Fingerprint.HashingInputStream body = new Fingerprint.HashingInputStream(record);
+                    content = this.ReadTextDocument(record, body, offset);
+                    contentHash = body.getHash();
+                    doc = new SubmitterDocument(entryURL, content,
+                            meta.getMimetype(),
+                            containingFile, recordIndex++);
+                    doc.setContentType(GetContentType(record));
+
+                } else if (length > this.Config.SpillThreshold) {
+                    ByteBuffer spilled = this.SpillBinaryDocument(record, offset, length);
+                    if (spilled == null) {
+                        System.err.println("ARC record for the URL " + entryURL + "Couldn't be read. An exception was encountered");
+                        tracker.recordSkipped(recordIndex++, recordOffset); // The next records keep their index
+                        continue;
                     }
-                    String result = this.sendPostCommand("<commit/>", this.URL); // Commit the submitted document to the index, in case the program crashed
-                    this.FlushIndexedDocs(); // Insert the submitted URLs to the database
+                    contentHash = Fingerprint.Hash64(spilled);
+                    doc = new SubmitterDocument(entryURL, spilled, meta.getMimetype(), containingFile, recordIndex++);
+                } else {
+                    byte[] buffer = this.ReadBinaryDocument(record,
+                            offset,
+                            (int) meta.getLength());
+                    if (buffer == null) {
+                        //log error to DB
+                        System.err.println("ARC record for the URL " + entryURL + "Couldn't be read. An exception was encountered");
+                        tracker.recordSkipped(recordIndex++, recordOffset); // The next records keep their index
+                        continue;
+                    }
+                    contentHash = Fingerprint.Hash64(buffer, 0, buffer.length);
+                    doc = new SubmitterDocument(entryURL, buffer,
+                            meta.getMimetype(),
+                            containingFile, recordIndex++);
 
-                } catch (Exception ex) {
-                    Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, "Exception at the ARC processing part: " +
-                                       ex.getMessage(), ex);
-                } finally {
-                    try {
-                        r.close();
-                    } catch (Exception ex) {}
                 }
 
+                BufferArena.get().reset(); // The content was copied to the document
+                if (this.IsUnchanged(entryURL, contentHash)) {
+                    tracker.recordSkipped(doc.getOffset(), recordOffset);
+                    continue;
+                }
+                doc.setContentHash(contentHash);
+                this.SubmitRecord(doc, tracker, recordOffset);
+
             }
+        } finally {
+            try {
+                r.close();
+            } catch (Exception ex) {}
+        }
+    }
+
+    /**
+     * Reads the records of an uncompressed ARC file through a memory mapping, the content of each record is a slice of the
+     * mapping that the worker reads directly
+     * @param fi File the ARC file
+     * @param containingFile String the path of the file as stored with its records
+     * @param tracker ARCFileTracker the tracker of the file
+     * @param start long the offset of the first record to read
+     * @param recordIndex int the index of the first record to read
+     * @param resumeIndex int the index of the first record to submit
+     * @throws Exception
+     */
+    private void ReadMappedRecords(File fi, String containingFile, ARCFileTracker tracker, long start, int recordIndex,
+                                   int resumeIndex) throws Exception {
+        MappedARCReader r = new MappedARCReader(fi, start);
+        try {
+            MappedARCReader.Record record;
+            while ((record = r.next()) != null) {
+                if (recordIndex < resumeIndex) { // Processed before the checkpoint
+                    tracker.recordSkipped(recordIndex++, record.Offset);
+                    continue;
+                }
+                if (!this.IsWanted(record.Url, record.Mimetype, record.StatusCode)) {
+                    tracker.recordSkipped(recordIndex++, record.Offset);
+                    continue; // File is not wanted
+                }
+                if (this.IsTooLarge(record.Url, record.Mimetype, containingFile, recordIndex, record.Body.remaining())) {
+                    tracker.recordSkipped(recordIndex++, record.Offset);
+                    continue;
+                }
+                long contentHash = Fingerprint.Hash64(record.Body);
+                if (this.IsUnchanged(record.Url, contentHash)) {
+                    tracker.recordSkipped(recordIndex++, record.Offset);
+                    continue;
+                }
+                SubmitterDocument doc = new SubmitterDocument(record.Url, record.Body, record.Mimetype, containingFile,
+                        recordIndex++);
+                doc.setContentType(record.ContentType); // The text is decoded by the worker
+                doc.setContentHash(contentHash);
+                this.SubmitRecord(doc, tracker, record.Offset);
+            }
+        } finally {
+            r.close();
+        }
+    }
 
+    /**
+     * Checks whether a record has to be indexed, based on its type and its HTTP status
+     * @param entryURL String the URL of the record
+     * @param mimetype String the type of the record
+     * @param statusCode int the HTTP status code of the record
+     * @return boolean true if the record is indexed
+     */
+    private boolean IsWanted(String entryURL, String mimetype, int statusCode) {
+        if (!this.Config.IndexedTypes.contains(mimetype)) {
+            System.err.println("Url: " + entryURL +
+                               " was ignored as its data type is: " +
+                               mimetype);
+            return false;
         }
 
+        if (statusCode >= 400) // Indicates an error
+        {
+            System.err.println("Url: " + entryURL +
+                               " was ignored since the status code indicates an error: "
+                               );
+            return false;
+
+        }
+        return true;
     }
 
     /**
-     * Insert all the processed URLs (ARC records) to the database. The database will contain the Url, file type, indexing time
-     * containing folder, and the record offset within the ARC file
+     * Checks whether a record is larger than the maximum record size, a larger record is logged to the database as skipped
+     * @param entryURL String the URL of the record
+     * @param mimetype String the type of the record
+     * @param containingFile String the path of the ARC file as stored with its records
+     * @param recordIndex int the index of the record in the ARC file
+     * @param length long the length of the content of the record
+     * @return boolean true if the record is skipped
      */
-    private void FlushIndexedDocs() {
-        try {
-            Class.forName(this.Config.DatabaseProvider);
-            Connection myConn = DriverManager.getConnection(
-                    this.Config.DBConnectionString);
-            Statement stat = myConn.createStatement();
-            PreparedStatement prep = myConn.prepareStatement(
-                    "insert into IndexedPages (Url, IndexingTime,FileType, ContainingFile,RecordOffset ) values (?, ?, ?, ?, ?);");
-            java.util.Date fromDate = new java.util.Date();
-            Timestamp ts = new Timestamp(fromDate.getTime());
-            while (this.IndexedDocs.size() > 0) {
-                SubmitterDocument doc = this.IndexedDocs.remove(0);
-                prep.setString(1, doc.getUrl());
-                prep.setTimestamp(2, ts);
-                prep.setString(3, doc.getDataType());
-                prep.setString(4, doc.getContainingFile());
-                prep.setInt(5, doc.getOffset());
-                prep.addBatch();
-                this.Count++;
+    private boolean IsTooLarge(String entryURL, String mimetype, String containingFile, int recordIndex, long length) {
+        if (this.Config.MaxRecordSize == 0 || length <= this.Config.MaxRecordSize)
+            return false;
+        System.err.println("Url: " + entryURL + " was skipped as its content is " + length + " bytes long");
+        SubmitterDocument doc = new SubmitterDocument(entryURL, (byte[]) null, mimetype, containingFile, recordIndex);
+        this.InsertErrorToDB(doc, IndexJournal.TOO_LARGE, "The record is " + length + " bytes long, the maximum is " +
+                             this.Config.MaxRecordSize);
+        return true;
+    }
 
-            }
+    /**
+     * Checks whether the content of a record is the content its URL was indexed with, an unchanged record only updates the
+     * time its page was last seen
+     * @param entryURL String the URL of the record
+     * @param contentHash long the hash of the content of the record
+     * @return boolean true if the record is skipped
+     */
+    private boolean IsUnchanged(String entryURL, long contentHash) {
+        if (this.Fingerprints == null || !this.Fingerprints.IsUnchanged(entryURL, contentHash))
+            return false;
+        this.Journal.Unchanged(entryURL);
+        return true;
+    }
 
-            prep.executeBatch();
+    /**
+     * Hands a record to the pool of workers, blocks while the pool is full
+     * @param doc SubmitterDocument the record
+     * @param tracker ARCFileTracker the tracker of the ARC file
+     * @param recordOffset long the offset of the record in the ARC file
+     * @throws Exception
+     */
+    private void SubmitRecord(SubmitterDocument doc, ARCFileTracker tracker, long recordOffset) throws Exception {
+        doc.setTracker(tracker);
+        Worker wrkr = new Worker(this, doc);
+
+        // Submit the job to the thread pool, blocks while the pool is full
+        tracker.recordSubmitted(doc.getOffset(), recordOffset);
+        long size = doc.getContentSize();
+        doc.setReservedSize(size); // Before the worker can acknowledge the record
+        try {
+            this.threadExecutor.execute(wrkr, size);
+        } catch (Exception ex) {
+            doc.setReservedSize(-1); // Already released by the pool
+            tracker.recordAcknowledged(doc.getOffset()); // The worker will never run
+            throw ex;
+        }
+    }
+
+    /**
+     * Acknowledges a record once it's submitted, recorded as an error or dropped: its room in the pool of workers is
+     * released, so the records between the reader and the index stay within QueueRecords or QueueBytes whatever the stage
+     * they are in, and its ARC file is notified
+     * @param doc SubmitterDocument the record
+     */
+    public void Acknowledge(SubmitterDocument doc) {
+        long size = doc.getReservedSize();
+        if (size >= 0) {
+            doc.setReservedSize(-1);
+            this.threadExecutor.release(size);
+        }
+        if (doc.getTracker() != null)
+            doc.getTracker().recordAcknowledged(doc.getOffset());
+    }
 
+    /**
+     * Called when all the records of an ARC file have been acknowledged. Commits the index and marks the ARC file as
+     * processed, unless the file couldn't be read completely
+     * @param tracker ARCFileTracker the tracker of the completed file
+     */
+    public synchronized void FileCompleted(ARCFileTracker tracker) {
+        boolean recorded = false; // The file left the active files, or the journal will take it out
+        try {
+            String result = this.sendPostCommand("<commit/>", this.URL); // Commit the submitted document to the index, in case the program crashed
+            // The submitted URLs of this file are already in the journal, the file is marked after them
+            if (tracker.isReadCompletely()) {
+                this.Journal.FileSubmitted(tracker.getFile()); // Insert the ARC file to the DB and mark it as processed
+                recorded = true;
+                if (tracker.isCheckpointed())
+                    this.Journal.ClearCheckpoint(tracker.getFile());
+            } else {
+                // The next scan resumes the file after the records already in the index
+                ARCFileTracker.Checkpoint checkpoint = tracker.getCheckpoint();
+                if (checkpoint != null)
+                    this.Journal.Checkpoint(checkpoint);
+                this.FileRecorded(tracker.getFile());
+                recorded = true;
+            }
+            System.err.println("Finished: " + tracker.getFile().getAbsolutePath() + " " + this.threadExecutor.getStatus());
         } catch (Exception ex) {
-            Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, "Couldn't Flush the Vector", ex);
+            Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, "Couldn't complete the ARC file " +
+                    tracker.getFile().getAbsolutePath(), ex);
+        } finally {
+            if (!recorded)
+                this.FileRecorded(tracker.getFile()); // Not marked as submitted, the next scan reads it again
+            this.PendingFiles.remove(tracker);
         }
+    }
 
+    /**
+     * Waits until the records of all the ARC files queued so far are acknowledged and written to the database. The files
+     * queued by the watcher in the meantime are not waited for
+     * @throws InterruptedException
+     */
+    public void AwaitPendingFiles() throws InterruptedException {
+        synchronized (this.ReadingFiles) {
+            Set<String> reading = new HashSet<String>(this.ReadingFiles);
+            while (!reading.isEmpty()) {
+                this.ReadingFiles.wait(); // Every file is registered in PendingFiles before it leaves ReadingFiles
+                reading.retainAll(this.ReadingFiles);
+            }
+        }
+        ARCFileTracker[] trackers = this.PendingFiles.toArray(new ARCFileTracker[0]);
+        for (int i = 0; i < trackers.length; i++) {
+            while (!trackers[i].await(this.Config.BatchFlushInterval, TimeUnit.MILLISECONDS)) {
+                this.Batcher.flush(); // Don't wait for the flushing thread to send the last records
+            }
+        }
+        this.Journal.Flush(); // The submitted files must be in the database before the next scan
     }
 
     /**
@@ -482,22 +981,24 @@ public class ARCSubmitter {
             byte[] buffer = new byte[recordLength - offset];
 
             int totalRead = 0;
-            do {
-                byte[] bytearr = new byte[offset];
-                read = record.read(bytearr, 0, offset);
-
+            byte[] bytearr = BufferArena.get().getBytes(offset); // The HTTP headers are read and dropped
+            while (totalRead < offset) {
+                read = record.read(bytearr, totalRead, offset - totalRead);
+                if (read == -1)
+                    break;
                 totalRead += read;
 
-            } while (totalRead != offset);
+            }
             read = 0;
             totalRead = 0;
-            do {
-
-                read = record.read(buffer, totalRead, 40960); // Using larger buffer, as usually binary files are large
+            while (totalRead < buffer.length) {
 
+                read = record.read(buffer, totalRead, Math.min(40960, buffer.length - totalRead)); // Using larger buffer, as usually binary files are large
+                if (read == -1)
+                    break;
                 totalRead += read;
 
-            } while (read != -1);
+            }
             return buffer;
         } catch (Exception ex) {
             Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, null, ex);
@@ -507,24 +1008,76 @@ public class ARCSubmitter {
     }
 
     /**
-     * Reads a text document from the ARC record
+     * Reads the content of a large ARC record into a temporary file and maps it, so the content isn't held in the heap.
+     * The file is deleted right away, the mapping keeps its pages until the document is collected
+     * @param record ARCRecord the record that its content is to be read
+     * @param offset int the offset at which the content of the document begins
+     * @param length long the length of the content
+     * @return ByteBuffer the read only mapping of the content, null if it couldn't be read
+     */
+    public ByteBuffer SpillBinaryDocument(ARCRecord record, int offset, long length) {
+        File spill = null;
+        try {
+            spill = File.createTempFile("arcrecord", ".tmp", this.Config.SpillFolder == null ? null :
+                                        new File(this.Config.SpillFolder));
+            byte[] buffer = BufferArena.get().getBytes(BufferArena.CHUNK_SIZE);
+            long totalRead = 0;
+            while (totalRead < offset) { // The HTTP headers are read and dropped
+                int read = record.read(buffer, 0, (int) Math.min(buffer.length, offset - totalRead));
+                if (read == -1)
+                    break;
+                totalRead += read;
+            }
+            OutputStream out = new FileOutputStream(spill);
+            totalRead = 0;
+            try {
+                while (totalRead < length) {
+                    int read = record.read(buffer, 0, (int) Math.min(buffer.length, length - totalRead));
+                    if (read == -1)
+                        break;
+                    out.write(buffer, 0, read);
+                    totalRead += read;
+                }
+            } finally {
+                out.close();
+            }
+            RandomAccessFile raf = new RandomAccessFile(spill, "r");
+            try {
+                return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, totalRead).asReadOnlyBuffer();
+            } finally {
+                raf.close();
+            }
+        } catch (Exception ex) {
+            Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        } finally {
+            if (spill != null && !spill.delete())
+                spill.deleteOnExit(); // Still mapped, on the systems that don't delete mapped files
+        }
+    }
+
+    /**
+     * Reads a text document from the ARC record, decoded in the charset given by the HTTP headers or by the page itself
      * @param record ARCRecord the record that its content is to be read
      * @param offset int the offset at which the content of the document begins
      * @return String the content of the text document
      */
     public String ReadTextDocument(ARCRecord record, int offset) {
+        return this.ReadTextDocument(record, record, offset);
+    }
+
+    /**
+     * Reads a text document from the ARC record through a stream over the record, hashing the content for instance
+     * @param record ARCRecord the record that its content is to be read
+     * @param body InputStream the stream reading the record
+     * @param offset int the offset at which the content of the document begins
+     * @return String the content of the text document
+     */
+    private String ReadTextDocument(ARCRecord record, InputStream body, int offset) {
         try {
-            int read = 0;
-            StringBuilder sb = new StringBuilder();
-            do {
-                byte[] bytearr = new byte[4096];
-                read = record.read(bytearr, 0, 4096);
-                sb.append(new String(bytearr, 0,
-                                     read == -1 ? 0 : read - offset));
-                offset = 0;
-
-            } while (read != -1);
-            return sb.toString();
+            record.skipHttpHeader();
+            return TextDecoder.get().Decode(body, record.getMetaData().getLength() - offset,
+                                            GetContentType(record));
         } catch (Exception ex) {
             Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, null, ex);
             return null;
@@ -532,8 +1085,22 @@ public class ARCSubmitter {
     }
 
     /**
-     * Sends a post request to the server
-     * Courtesy of Grant Ingersoll @ IBM
+     * @param record ARCRecord a record whose HTTP headers were parsed
+     * @return String the value of its Content-Type header, null if there is none
+     */
+    private static String GetContentType(ARCRecord record) {
+        Header[] headers = record.getHttpHeaders();
+        if (headers == null)
+            return null;
+        for (int i = 0; i < headers.length; i++) {
+            if ("Content-Type".equalsIgnoreCase(headers[i].getName()))
+                return headers[i].getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Sends a post request to the server through the shared submission client
      * @param command String the command to be sent
      * @param url String the URL of the server
      * @return String The result of the submit
@@ -541,52 +1108,7 @@ public class ARCSubmitter {
      */
     public String sendPostCommand(String command, URL url) throws
             Exception {
-        String results = null;
-        HttpClient client = new HttpClient();
-        if (url.getUserInfo() != null){
-            String username = url.getUserInfo().split(":")[0];
-            String password = url.getUserInfo().split(":")[1];
-            UsernamePasswordCredentials creds = new UsernamePasswordCredentials(username, password);
-            HttpState state = new HttpState();
-            state.setCredentials(AuthScope.ANY, creds);
-            client.setState(state);
-        }
-        PostMethod post = new PostMethod(url.toString());
-
-        RequestEntity re = new StringRequestEntity(command, "text/xml", "UTF-8");
-        post.setRequestEntity(re);
-        try {
-            // Execute the method.
-            int statusCode = client.executeMethod(post);
-
-            if (statusCode != HttpStatus.SC_OK) {
-                System.err.println("Method failed: " + post.getStatusLine());
-            }
-
-            // Read the response body.
-            byte[] responseBody = post.getResponseBody();
-
-            // Deal with the response.
-            // Use caution: ensure correct character encoding and is not binary data
-            results = new String(responseBody);
-        } catch (HttpException e) {
-            //System.err.println("Fatal protocol violation: " + e.getMessage());
-            //e.printStackTrace();
-            throw e;
-        } catch (IOException e) {
-            //System.err.println("Fatal transport error: " + e.getMessage());
-            //e.printStackTrace();
-            throw e;
-        } finally {
-            // Release the connection.
-            post.releaseConnection();
-            client.getHttpConnectionManager().closeIdleConnections(0); // Don not remove this line
-            // releaseConnection() is known to throw an exception, and leave the connection open, hence increase the possibility
-            // of file descriptors leak in the system. Eventually exhasting all the open files limit
-            // closeIdleConnections() will incure some overhead, but you won't risk running out of file descriptos
-
-        }
-        return results;
+        return this.Client.sendPostCommand(command, url);
     }
 
 
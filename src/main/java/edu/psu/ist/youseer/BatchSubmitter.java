@@ -0,0 +1,214 @@
+package edu.psu.ist.youseer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Title: BatchSubmitter</p>
+ *
+ * <p>Description: Collects the documents generated by all the workers and sends them to the index in multi document add
+ * requests. A batch is sent when it reaches the configured number of documents, the configured size in bytes, or when its
+ * oldest document has been waiting for the configured interval, whichever comes first. The size of a batch is estimated
+ * from the length of its text, the request itself is streamed to the index by UpdateRequestEntity.
+ * When the index rejects a batch, the documents of that batch are sent again one by one, so every document ends up either
+ * in the IndexedPages table or in the SubmissionErrors table, exactly like when they were submitted separately.
+ * A full batch is sent by the thread that filled it, or by a thread of its own started by the send stage when the I/O runs
+ * on virtual threads; the stage then limits the batches in flight.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class BatchSubmitter implements Runnable {
+
+    private ARCSubmitter parent;
+
+    private List<SubmitterDocument> docs = new ArrayList<SubmitterDocument>();
+
+    private long bytes = 0;
+
+    /**
+     * The time at which the oldest document of the current batch was added
+     */
+    private long oldest = 0;
+
+    private volatile boolean running = true;
+
+    private Thread flusher;
+
+    public BatchSubmitter(ARCSubmitter parent) {
+        this.parent = parent;
+        this.flusher = new Thread(this, "BatchSubmitter-Flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Adds a document to the current batch, and sends the batch if it's full
+     * @param doc SubmitterDocument the processed document
+     */
+    public void add(SubmitterDocument doc) {
+        List<SubmitterDocument> readyDocs = null;
+        synchronized (this) {
+            if (this.docs.isEmpty())
+                this.oldest = System.currentTimeMillis();
+            this.docs.add(doc);
+            this.bytes += EstimateSize(doc);
+            if (this.docs.size() >= this.parent.Config.BatchSize || this.bytes >= this.parent.Config.BatchBytes) {
+                readyDocs = this.docs;
+                this.reset();
+            }
+        }
+        // Send outside the lock, so the other workers can keep filling the next batch
+        if (readyDocs != null)
+            this.dispatch(readyDocs);
+    }
+
+    /**
+     * Sends the current batch to the index regardless of its size
+     */
+    public void flush() {
+        List<SubmitterDocument> readyDocs;
+        synchronized (this) {
+            if (this.docs.isEmpty())
+                return;
+            readyDocs = this.docs;
+            this.reset();
+        }
+        this.dispatch(readyDocs);
+    }
+
+    /**
+     * Sends the pending documents and stops the flushing thread
+     */
+    public void shutdown() {
+        this.running = false;
+        this.flusher.interrupt();
+        this.flush();
+    }
+
+    /**
+     * Sends the batches that have been waiting for more than the flush interval
+     */
+    public void run() {
+        while (this.running) {
+            try {
+                Thread.sleep(Math.max(this.parent.Config.BatchFlushInterval / 4, 10));
+            } catch (InterruptedException ex) {
+                continue;
+            }
+            boolean expired;
+            synchronized (this) {
+                expired = !this.docs.isEmpty() &&
+                          System.currentTimeMillis() - this.oldest >= this.parent.Config.BatchFlushInterval;
+            }
+            if (expired)
+                this.flush();
+        }
+    }
+
+    private void reset() {
+        this.docs = new ArrayList<SubmitterDocument>();
+        this.bytes = 0;
+    }
+
+    /**
+     * Estimates the number of bytes the document takes in the request
+     * @param doc SubmitterDocument the processed document
+     * @return long
+     */
+    private static long EstimateSize(SubmitterDocument doc) {
+        if (doc.getSerializedContent() != null)
+            return doc.getSerializedContent().length;
+        long size = 256; // The field tags and the metadata
+        if (doc.getStrippedTextContent() != null)
+            size += doc.getStrippedTextContent().length();
+        if (doc.getTitle() != null)
+            size += doc.getTitle().length();
+        if (doc.getCustomData() != null)
+            size += doc.getCustomData().length();
+        return size;
+    }
+
+    /**
+     * Sends a batch from the current thread, or from a thread of the send stage when there is one. Blocks while the send
+     * stage has as many batches in flight as it allows
+     * @param batchDocs List the documents of the batch
+     */
+    private void dispatch(final List<SubmitterDocument> batchDocs) {
+        PipelineStage senders = this.parent.Senders;
+        if (senders != null) {
+            try {
+                senders.execute(new Runnable() {
+                    public void run() {
+                        send(batchDocs);
+                    }
+                });
+                return;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (RejectedExecutionException ex) {
+                // Shut down, the batch is sent from this thread
+            }
+        }
+        this.send(batchDocs);
+    }
+
+    /**
+     * Sends a batch to the index. If the batch is rejected, its documents are sent separately to find out which ones failed
+     * @param batchDocs List the documents of the batch
+     */
+    private void send(List<SubmitterDocument> batchDocs) {
+        try {
+            this.parent.Client.sendUpdateCommand(new UpdateRequestEntity(this.parent, batchDocs),
+                                                 this.parent.Config.IndexURL);
+            for (int i = 0; i < batchDocs.size(); i++)
+                this.succeed(batchDocs.get(i));
+            return;
+        } catch (Throwable ex) { // An Error too, the documents of the batch have to be acknowledged
+            if (batchDocs.size() == 1) {
+                this.fail(batchDocs.get(0), ex);
+                return;
+            }
+            Logger.getLogger(Worker.class.getName()).log(Level.WARNING, "Batch of " + batchDocs.size() +
+                    " documents was rejected, submitting them separately", ex);
+        }
+
+        for (int i = 0; i < batchDocs.size(); i++) {
+            SubmitterDocument doc = batchDocs.get(i);
+            try {
+                List<SubmitterDocument> single = new ArrayList<SubmitterDocument>(1);
+                single.add(doc);
+                this.parent.Client.sendUpdateCommand(new UpdateRequestEntity(this.parent, single),
+                                                     this.parent.Config.IndexURL);
+                this.succeed(doc);
+            } catch (Throwable ex) {
+                this.fail(doc, ex);
+            }
+        }
+    }
+
+    private void succeed(SubmitterDocument doc) {
+        doc.setStrippedTextContent(null); // Only the metadata is needed from now on
+        doc.setSerializedContent(null);
+        this.parent.Journal.Indexed(doc);
+        this.parent.Acknowledge(doc);
+    }
+
+    private void fail(SubmitterDocument doc, Throwable ex) {
+        doc.setStrippedTextContent(null);
+        doc.setSerializedContent(null);
+        Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, "Exception encountered while submitting the URL:" +
+                doc.getUrl(), ex);
+        this.parent.InsertErrorToDB(doc, ex.getMessage());
+        if (this.parent.Duplicates != null) // Its copies are no longer near duplicates
+            this.parent.Duplicates.Remove(doc.getNearDuplicateEntry());
+        this.parent.Acknowledge(doc);
+    }
+}
@@ -0,0 +1,166 @@
+package edu.psu.ist.youseer;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: BufferArena</p>
+ *
+ * <p>Description: The scratch buffers of a thread, reused from one document to the next by the loops that read, decode,
+ * strip and parse the records: a byte buffer, a char buffer and a StringBuilder. A buffer grows when a document needs more
+ * room, and when the document is done (reset()) a buffer that grew past the limit is dropped, so a single huge document
+ * doesn't pin its memory for the rest of the run.
+ * The arenas count the bytes they allocate, and the extract stage counts the documents it's done with once, whatever the
+ * number of threads and resets a document went through; the average allocation per document is reported with the status
+ * of the pool of workers.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class BufferArena {
+
+    private static final int INITIAL_SIZE = 64 * 1024;
+
+    /**
+     * The size of the chunks read by the reading loops
+     */
+    public static final int CHUNK_SIZE = 8192;
+
+    /**
+     * The largest buffer kept between two documents, in bytes for the byte buffer and in chars for the others
+     */
+    private static volatile int maxRetained = 1024 * 1024;
+
+    private static final AtomicLong allocatedBytes = new AtomicLong();
+
+    private static final AtomicLong documents = new AtomicLong();
+
+    private static final ThreadLocal<BufferArena> arenas = new ThreadLocal<BufferArena>() {
+        protected BufferArena initialValue() {
+            return new BufferArena();
+        }
+    };
+
+    private byte[] bytes;
+
+    private CharBuffer chars;
+
+    private StringBuilder builder;
+
+    private BufferArena() {
+    }
+
+    /**
+     * @return BufferArena the arena of the current thread
+     */
+    public static BufferArena get() {
+        return arenas.get();
+    }
+
+    /**
+     * @param limit int the largest buffer kept between two documents
+     */
+    public static void setMaxRetained(int limit) {
+        maxRetained = limit;
+    }
+
+    /**
+     * Counts a document the arenas were used for, called once per document
+     */
+    public static void countDocument() {
+        documents.incrementAndGet();
+    }
+
+    /**
+     * @param minSize int the number of bytes needed
+     * @return byte[] the byte buffer of the thread, at least minSize long, its content is undefined
+     */
+    public byte[] getBytes(int minSize) {
+        if (this.bytes == null || this.bytes.length < minSize) {
+            this.bytes = new byte[Math.max(minSize, INITIAL_SIZE)];
+            allocatedBytes.addAndGet(this.bytes.length);
+        }
+        return this.bytes;
+    }
+
+    /**
+     * Grows the byte buffer, keeping its first bytes
+     * @param used int the number of bytes to keep
+     * @return byte[] the new byte buffer, twice as large
+     */
+    public byte[] growBytes(int used) {
+        byte[] larger = new byte[Math.max(INITIAL_SIZE, this.bytes.length * 2)];
+        System.arraycopy(this.bytes, 0, larger, 0, used);
+        allocatedBytes.addAndGet(larger.length);
+        this.bytes = larger;
+        return larger;
+    }
+
+    /**
+     * @param capacity int the number of chars needed
+     * @return CharBuffer the char buffer of the thread, cleared, with at least the given capacity
+     */
+    public CharBuffer getCharBuffer(int capacity) {
+        if (this.chars == null || this.chars.capacity() < capacity) {
+            this.chars = CharBuffer.allocate(Math.max(capacity, INITIAL_SIZE));
+            allocatedBytes.addAndGet(2L * this.chars.capacity());
+        }
+        this.chars.clear();
+        return this.chars;
+    }
+
+    /**
+     * @param expected int the expected length of the text, 0 if it's unknown
+     * @return StringBuilder the empty builder of the thread
+     */
+    public StringBuilder getBuilder(int expected) {
+        if (this.builder == null) {
+            this.builder = new StringBuilder(Math.max(expected, INITIAL_SIZE));
+            allocatedBytes.addAndGet(2L * this.builder.capacity());
+        } else {
+            this.builder.setLength(0);
+            if (expected > this.builder.capacity()) {
+                this.builder.ensureCapacity(expected);
+                allocatedBytes.addAndGet(2L * this.builder.capacity());
+            }
+        }
+        return this.builder;
+    }
+
+    /**
+     * Called when a thread is done with a document, drops the buffers that grew past the limit
+     */
+    public void reset() {
+        int limit = maxRetained;
+        if (this.bytes != null && this.bytes.length > limit)
+            this.bytes = null;
+        if (this.chars != null && this.chars.capacity() > limit)
+            this.chars = null;
+        if (this.builder != null) {
+            if (this.builder.capacity() > limit)
+                this.builder = null;
+            else
+                this.builder.setLength(0);
+        }
+    }
+
+    /**
+     * @return long the bytes allocated by the arenas of all the threads so far
+     */
+    public static long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * @return String the allocations of the arenas for the log
+     */
+    public static String getStatus() {
+        long docs = documents.get();
+        return "Buffers allocated: " + (allocatedBytes.get() / 1024) + " KB, per document: " +
+               (docs == 0 ? 0 : allocatedBytes.get() / docs) + " bytes";
+    }
+}
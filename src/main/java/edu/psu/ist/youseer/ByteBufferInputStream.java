@@ -0,0 +1,68 @@
+package edu.psu.ist.youseer;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Title: ByteBufferInputStream</p>
+ *
+ * <p>Description: Reads a buffer, usually a slice of a mapped ARC file, as an input stream so the parsers can consume the
+ * content of a record without copying it to an array first. The stream has its own position, the buffer given to it is
+ * left untouched.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    private ByteBuffer buffer;
+
+    private int mark = -1;
+
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate();
+    }
+
+    public int read() {
+        if (!this.buffer.hasRemaining())
+            return -1;
+        return this.buffer.get() & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+        if (!this.buffer.hasRemaining())
+            return -1;
+        len = Math.min(len, this.buffer.remaining());
+        this.buffer.get(b, off, len);
+        return len;
+    }
+
+    public long skip(long n) {
+        int skipped = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+        this.buffer.position(this.buffer.position() + skipped);
+        return skipped;
+    }
+
+    public int available() {
+        return this.buffer.remaining();
+    }
+
+    public boolean markSupported() {
+        return true;
+    }
+
+    public void mark(int readlimit) {
+        this.mark = this.buffer.position();
+    }
+
+    public void reset() {
+        if (this.mark >= 0)
+            this.buffer.position(this.mark);
+    }
+}
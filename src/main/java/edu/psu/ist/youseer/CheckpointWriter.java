@@ -0,0 +1,92 @@
+package edu.psu.ist.youseer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+
+/**
+ * <p>Title: CheckpointWriter</p>
+ *
+ * <p>Description: Saves, at the configured interval, the position reached in each of the ARC files being processed. The
+ * acknowledged documents are only durable in the index once they are committed, so the index is committed before the
+ * checkpoints are handed to the journal, and a checkpoint never covers a document the index could lose in a crash.
+ * The checkpoints are taken from the trackers on this thread and written by the journal, the readers and the workers
+ * never wait for them.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class CheckpointWriter implements Runnable {
+
+    private ARCSubmitter parent;
+
+    private volatile boolean running = true;
+
+    private Thread writer;
+
+    public CheckpointWriter(ARCSubmitter parent) {
+        this.parent = parent;
+        if (this.parent.Config.CheckpointInterval > 0) {
+            this.writer = new Thread(this, "CheckpointWriter");
+            this.writer.setDaemon(true);
+            this.writer.start();
+        }
+    }
+
+    /**
+     * Stops the writing thread, the completed files don't need a checkpoint anymore
+     */
+    public void shutdown() {
+        this.running = false;
+        if (this.writer != null)
+            this.writer.interrupt();
+    }
+
+    public void run() {
+        while (this.running) {
+            try {
+                Thread.sleep(this.parent.Config.CheckpointInterval);
+            } catch (InterruptedException ex) {
+                continue;
+            }
+            this.checkpoint();
+        }
+    }
+
+    /**
+     * Commits the index and queues the checkpoints of the files that moved since their last checkpoint
+     */
+    public void checkpoint() {
+        List<ARCFileTracker> trackers = new ArrayList<ARCFileTracker>();
+        List<ARCFileTracker.Checkpoint> checkpoints = new ArrayList<ARCFileTracker.Checkpoint>();
+        for (Iterator<ARCFileTracker> iter = this.parent.PendingFiles.iterator(); iter.hasNext(); ) {
+            ARCFileTracker tracker = iter.next();
+            ARCFileTracker.Checkpoint checkpoint = tracker.getCheckpoint();
+            if (checkpoint != null) {
+                trackers.add(tracker);
+                checkpoints.add(checkpoint);
+            }
+        }
+        if (checkpoints.isEmpty())
+            return;
+
+        try {
+            // The checkpoints were taken before the commit, so the documents they cover are committed
+            this.parent.Client.sendUpdateCommand(new StringRequestEntity("<commit/>", "text/xml", "UTF-8"),
+                                                 this.parent.URL);
+        } catch (Exception ex) {
+            Logger.getLogger(Worker.class.getName()).log(Level.WARNING, "Couldn't commit the index, " +
+                    checkpoints.size() + " checkpoints were not written", ex);
+            return;
+        }
+        for (int i = 0; i < trackers.size(); i++)
+            trackers.get(i).writeCheckpoint(checkpoints.get(i));
+    }
+}
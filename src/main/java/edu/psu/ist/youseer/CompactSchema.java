@@ -0,0 +1,143 @@
+package edu.psu.ist.youseer;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Title: CompactSchema</p>
+ *
+ * <p>Description: The compact schema of the bookkeeping tables, keyed by 64 bit document IDs instead of URLs. The ID of a
+ * document is the 64 bit hash of its URL, computed in the application so no query is needed to find it; the URLs are kept
+ * once in the DocumentUrls dictionary, and the ARC files are numbered in the ARCFileIds table. The rows of IndexedDocs and
+ * DocErrors then have a fixed, small size, and so do their B-tree indexes.
+ * The file IDs are loaded at startup. The IDs of the documents recently written to the dictionary are kept in memory, so
+ * the pages seen again and again don't rewrite their URL. The dictionary is checked before a URL is written: a URL whose
+ * ID is already the ID of another URL is logged as an error and its row isn't written, so the rows of the two URLs are
+ * never mixed up.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class CompactSchema {
+
+    /**
+     * The most document IDs remembered as being in the dictionary, the set is cleared when it grows past it
+     */
+    private static final int MAX_KNOWN_DOCUMENTS = 1 << 20;
+
+    public static final String[] TABLES = {
+            "create table if not exists DocumentUrls (DocId BIGINT PRIMARY KEY, Url VARCHAR(512));",
+            "create table if not exists ARCFileIds (FileId Integer PRIMARY KEY, Path VARCHAR(255));",
+            "create table if not exists IndexedDocs (DocId BIGINT, IndexingTime DATE, FileType VARCHAR(100), FileId Integer, RecordOffset Integer, PRIMARY KEY (DocId, IndexingTime));",
+            "create table if not exists DocErrors (DocId BIGINT, IndexingTime DATE, FileType VARCHAR(100), FileId Integer, RecordOffset Integer, ErrorMessage VARCHAR(500), Reason VARCHAR(32), PRIMARY KEY (DocId, IndexingTime));"};
+
+    public static final String[] INDEXES = {
+            "create index if not exists IndexedDocsFileId on IndexedDocs (FileId);",
+            "create index if not exists DocErrorsFileId on DocErrors (FileId);"};
+
+    private Map<String, Integer> fileIds = new HashMap<String, Integer>();
+
+    private int lastFileId = 0;
+
+    private LongOpenHashSet knownDocuments = new LongOpenHashSet();
+
+    /**
+     * @param url String the URL of a document
+     * @return long the ID of the document
+     */
+    public static long DocId(String url) {
+        return Fingerprint.Hash64(url);
+    }
+
+    /**
+     * Loads the IDs of the ARC files from the database
+     * @param pool DBConnectionPool the connections to the database
+     * @throws SQLException
+     */
+    public void Load(DBConnectionPool pool) throws SQLException {
+        DBConnectionPool.PooledConnection conn = pool.borrow();
+        try {
+            Statement stat = conn.getConnection().createStatement();
+            ResultSet rs = stat.executeQuery("select FileId, Path from ARCFileIds;");
+            synchronized (this) {
+                while (rs.next()) {
+                    int id = rs.getInt(1);
+                    this.fileIds.put(rs.getString(2), Integer.valueOf(id));
+                    this.lastFileId = Math.max(this.lastFileId, id);
+                }
+            }
+            rs.close();
+            stat.close();
+            pool.release(conn);
+        } catch (SQLException ex) {
+            pool.discard(conn);
+            throw ex;
+        }
+    }
+
+    /**
+     * Numbers an ARC file before its records are read, the number is written to the database right away. The connection
+     * is borrowed without holding the lock of the schema: the journal holds a connection while it asks the schema for IDs
+     * @param path String the path of the file as stored with its records
+     * @param pool DBConnectionPool the connections to the database
+     * @throws SQLException
+     */
+    public void Register(String path, DBConnectionPool pool) throws SQLException {
+        int id;
+        synchronized (this) {
+            if (this.fileIds.containsKey(path))
+                return;
+            id = ++this.lastFileId; // Reserved, a failed insert only leaves a gap
+        }
+        DBConnectionPool.PooledConnection conn = pool.borrow();
+        try {
+            PreparedStatement insert = conn.prepare(DBConnectionPool.INSERT_FILE_ID);
+            insert.setInt(1, id);
+            insert.setString(2, path);
+            insert.executeUpdate();
+            pool.release(conn);
+        } catch (SQLException ex) {
+            pool.discard(conn);
+            throw ex;
+        }
+        synchronized (this) { // A file is read by one reader at a time, so it's registered once
+            this.fileIds.put(path, Integer.valueOf(id));
+        }
+    }
+
+    /**
+     * @param path String the path of a registered ARC file
+     * @return int the ID of the file, 0 if it isn't registered
+     */
+    public synchronized int FileId(String path) {
+        Integer id = this.fileIds.get(path);
+        return id == null ? 0 : id.intValue();
+    }
+
+    /**
+     * @param docId long the ID of a document
+     * @return boolean true if the URL of the document was written to the dictionary recently
+     */
+    public synchronized boolean IsKnown(long docId) {
+        return this.knownDocuments.contains(docId);
+    }
+
+    /**
+     * Remembers that the URL of a document is in the dictionary, once its row is committed
+     * @param docId long the ID of the document
+     */
+    public synchronized void Known(long docId) {
+        if (this.knownDocuments.size() >= MAX_KNOWN_DOCUMENTS)
+            this.knownDocuments.clear();
+        this.knownDocuments.add(docId);
+    }
+}
@@ -0,0 +1,91 @@
+package edu.psu.ist.youseer;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: ContentFingerprintStore</p>
+ *
+ * <p>Description: In-memory copy of the ContentFingerprints table, mapping the 64 bit hash of the URL of every indexed
+ * page to the 64 bit hash of the content it was indexed with. The readers check a record against it before handing it to
+ * the workers: a record whose content didn't change since it was indexed is neither parsed nor submitted, only the time it
+ * was last seen is updated in the table.
+ * The table is loaded in a primitive open addressing map at startup, so the check needs no database round trip. The
+ * fingerprint of a page is stored by the journal when the page is recorded in IndexedPages, and enters the map once its
+ * transaction is committed.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class ContentFingerprintStore {
+
+    private Long2LongOpenHashMap fingerprints = new Long2LongOpenHashMap();
+
+    private AtomicLong unchanged = new AtomicLong();
+
+    /**
+     * Loads all the fingerprints from the database
+     * @param pool DBConnectionPool the connections to the database
+     * @throws SQLException
+     */
+    public void Load(DBConnectionPool pool) throws SQLException {
+        DBConnectionPool.PooledConnection conn = pool.borrow();
+        try {
+            Statement stat = conn.getConnection().createStatement();
+            ResultSet rs = stat.executeQuery("select UrlHash, ContentHash from ContentFingerprints;");
+            synchronized (this) {
+                while (rs.next())
+                    this.fingerprints.put(rs.getLong(1), rs.getLong(2));
+            }
+            rs.close();
+            stat.close();
+            pool.release(conn);
+        } catch (SQLException ex) {
+            pool.discard(conn);
+            throw ex;
+        }
+    }
+
+    /**
+     * @param url String the URL of a record
+     * @param contentHash long the hash of the content of the record
+     * @return boolean true if the page was indexed with the same content
+     */
+    public boolean IsUnchanged(String url, long contentHash) {
+        long urlHash = Fingerprint.Hash64(url);
+        boolean same;
+        synchronized (this) {
+            same = this.fingerprints.containsKey(urlHash) && this.fingerprints.get(urlHash) == contentHash;
+        }
+        if (same)
+            this.unchanged.incrementAndGet();
+        return same;
+    }
+
+    /**
+     * Records the content a page was indexed with, once its row is committed
+     * @param urlHash long the hash of the URL of the page
+     * @param contentHash long the hash of its content
+     */
+    public synchronized void Put(long urlHash, long contentHash) {
+        this.fingerprints.put(urlHash, contentHash);
+    }
+
+    public synchronized int size() {
+        return this.fingerprints.size();
+    }
+
+    /**
+     * @return String the unchanged records skipped, for the log
+     */
+    public String getStatus() {
+        return "Unchanged records skipped: " + this.unchanged.get();
+    }
+}
@@ -0,0 +1,207 @@
+package edu.psu.ist.youseer;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Title: DBConnectionPool</p>
+ *
+ * <p>Description: A small pool of long lived database connections owned by the ARCSubmitter. The connections are opened
+ * lazily, up to the size of the pool, and each of them keeps the prepared statements it has compiled, so the bookkeeping
+ * statements (marking an ARC file, checking an ARC file, logging an indexed page or a submission error, saving a checkpoint) are compiled once
+ * per connection instead of once per call.
+ * A connection that failed is discarded by the caller and a new one is opened the next time it's needed.
+ * With SQLite the pool defaults to a single connection, as the database accepts one writer at a time anyway. The
+ * statements given to the pool (the SQLite pragmas, for example) are run on every new connection.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class DBConnectionPool {
+
+    public static final String INSERT_SUBMITTED_FILE =
+            "insert into SubmittedARCFiles (Path, SubmitionTime) values (?, ?);";
+    public static final String SELECT_SUBMITTED_FILE =
+            "select Path from SubmittedARCFiles where Path = ?;";
+    public static final String INSERT_INDEXED_PAGE =
+            "insert into IndexedPages (Url, IndexingTime,FileType, ContainingFile,RecordOffset ) values (?, ?, ?, ?, ?);";
+    public static final String INSERT_SUBMISSION_ERROR =
+            "insert into SubmissionErrors (Url, IndexingTime ,FileType , ContainingFile ,RecordOffset , ErrorMessage, Reason) values (?, ?, ?, ?, ?, ?, ?);";
+
+    public static final String INSERT_INDEXED_DOC =
+            "insert into IndexedDocs (DocId, IndexingTime, FileType, FileId, RecordOffset) values (?, ?, ?, ?, ?);";
+    public static final String INSERT_DOC_ERROR =
+            "insert into DocErrors (DocId, IndexingTime, FileType, FileId, RecordOffset, ErrorMessage, Reason) values (?, ?, ?, ?, ?, ?, ?);";
+    public static final String SELECT_DOCUMENT_URL =
+            "select Url from DocumentUrls where DocId = ?;";
+    public static final String INSERT_DOCUMENT_URL =
+            "insert into DocumentUrls (DocId, Url) values (?, ?);";
+    public static final String INSERT_FILE_ID =
+            "insert into ARCFileIds (FileId, Path) values (?, ?);";
+
+    public static final String INSERT_NEAR_DUPLICATE =
+            "insert into NearDuplicates (Url, IndexingTime, ContainingFile, RecordOffset, CanonicalUrl, Distance, CanonicalId, CanonicalFile, CanonicalOffset) values (?, ?, ?, ?, ?, ?, ?, ?, ?);";
+
+    public static final String UPDATE_FINGERPRINT =
+            "update ContentFingerprints set ContentHash = ?, LastSeen = ? where UrlHash = ?;";
+    public static final String INSERT_FINGERPRINT =
+            "insert into ContentFingerprints (UrlHash, ContentHash, LastSeen) values (?, ?, ?);";
+    public static final String UPDATE_LAST_SEEN =
+            "update ContentFingerprints set LastSeen = ? where UrlHash = ?;";
+
+    public static final String INSERT_CHECKPOINT =
+            "insert into ARCCheckpoints (Path, SeekOffset, SeekIndex, ResumeIndex, UpdateTime) values (?, ?, ?, ?, ?);";
+    public static final String DELETE_CHECKPOINT =
+            "delete from ARCCheckpoints where Path = ?;";
+    public static final String SELECT_CHECKPOINT =
+            "select SeekOffset, SeekIndex, ResumeIndex from ARCCheckpoints where Path = ?;";
+
+    private String connectionString;
+
+    private List<String> initStatements;
+
+    private BlockingQueue<PooledConnection> idle;
+
+    /**
+     * One permit for each connection that can be borrowed, opened or not
+     */
+    private Semaphore available;
+
+    /**
+     *
+     * @param provider String the class name of the JDBC driver
+     * @param connectionString String the connection string of the database
+     * @param size int the maximum number of open connections
+     * @param initStatements List the statements run on every new connection
+     * @throws ClassNotFoundException
+     */
+    public DBConnectionPool(String provider, String connectionString, int size, List<String> initStatements)
+            throws ClassNotFoundException {
+        Class.forName(provider);
+        this.connectionString = connectionString;
+        this.initStatements = initStatements;
+        this.idle = new ArrayBlockingQueue<PooledConnection>(size);
+        this.available = new Semaphore(size, true);
+    }
+
+    /**
+     * Takes a connection from the pool, opens a new one if there is no idle connection. Blocks while all the connections are
+     * borrowed. Every borrowed connection must be given back with release() or discard()
+     * @return PooledConnection
+     * @throws SQLException
+     */
+    public PooledConnection borrow() throws SQLException {
+        this.available.acquireUninterruptibly();
+        PooledConnection conn = this.idle.poll();
+        if (conn != null)
+            return conn;
+        try {
+            Connection connection = DriverManager.getConnection(this.connectionString);
+            try {
+                Statement stat = connection.createStatement();
+                for (int i = 0; i < this.initStatements.size(); i++)
+                    stat.execute(this.initStatements.get(i));
+                stat.close();
+            } catch (SQLException ex) {
+                connection.close();
+                throw ex;
+            }
+            return new PooledConnection(connection);
+        } catch (SQLException ex) {
+            this.available.release();
+            throw ex;
+        } catch (RuntimeException ex) {
+            this.available.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gives a healthy connection back to the pool
+     * @param conn PooledConnection
+     */
+    public void release(PooledConnection conn) {
+        this.idle.offer(conn);
+        this.available.release();
+    }
+
+    /**
+     * Closes a connection that failed, the next borrow() opens a new one
+     * @param conn PooledConnection
+     */
+    public void discard(PooledConnection conn) {
+        conn.close();
+        this.available.release();
+    }
+
+    /**
+     * Closes the idle connections
+     */
+    public void close() {
+        PooledConnection conn;
+        while ((conn = this.idle.poll()) != null)
+            conn.close();
+    }
+
+    /**
+     * A connection with the prepared statements it has compiled so far
+     */
+    public static class PooledConnection {
+
+        private Connection connection;
+
+        private Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        public Connection getConnection() {
+            return this.connection;
+        }
+
+        /**
+         * @param sql String one of the statements of the pool, or any other statement used repeatedly
+         * @return PreparedStatement the statement compiled on this connection, prepared on its first use
+         * @throws SQLException
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement prep = this.statements.get(sql);
+            if (prep == null) {
+                prep = this.connection.prepareStatement(sql);
+                this.statements.put(sql, prep);
+            }
+            return prep;
+        }
+
+        private void close() {
+            for (Iterator<PreparedStatement> iter = this.statements.values().iterator(); iter.hasNext(); ) {
+                try {
+                    iter.next().close();
+                } catch (SQLException ex) {}
+            }
+            this.statements.clear();
+            try {
+                this.connection.close();
+            } catch (SQLException ex) {
+                Logger.getLogger(Worker.class.getName()).log(Level.WARNING, "Couldn't close the database connection", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package edu.psu.ist.youseer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Title: Fingerprint</p>
+ *
+ * <p>Description: 64 bit hash functions used to keep compact in-memory sets of strings (ARC file paths, URLs) and to
+ * fingerprint record content. The hash is FNV-1a followed by the MurmurHash3 finalizer, which is fast and spreads the bits
+ * well enough for open addressing tables. It's not a cryptographic hash, the callers that can't accept a collision keep a
+ * way to check the original value.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class Fingerprint {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private Fingerprint() {
+    }
+
+    /**
+     * @param text CharSequence the text to be hashed
+     * @return long the 64 bit hash of the characters of the text
+     */
+    public static long Hash64(CharSequence text) {
+        long hash = FNV_OFFSET;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            hash ^= c & 0xff;
+            hash *= FNV_PRIME;
+            hash ^= c >>> 8;
+            hash *= FNV_PRIME;
+        }
+        return Mix(hash);
+    }
+
+    /**
+     * @param bytes byte[] the buffer containing the data
+     * @param offset int the offset of the data in the buffer
+     * @param length int the length of the data
+     * @return long the 64 bit hash of the data
+     */
+    public static long Hash64(byte[] bytes, int offset, int length) {
+        long hash = FNV_OFFSET;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            hash ^= bytes[i] & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return Mix(hash);
+    }
+
+    /**
+     * @param buffer ByteBuffer the data, from its position to its limit, the buffer isn't modified
+     * @return long the 64 bit hash of the data, the same as the hash of the data copied to an array
+     */
+    public static long Hash64(ByteBuffer buffer) {
+        long hash = FNV_OFFSET;
+        int end = buffer.limit();
+        for (int i = buffer.position(); i < end; i++) {
+            hash ^= buffer.get(i) & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return Mix(hash);
+    }
+
+    /**
+     * Hashes the bytes read through it, getHash() is the hash of the data read so far as given by Hash64(byte[])
+     */
+    public static class HashingInputStream extends FilterInputStream {
+
+        private long hash = FNV_OFFSET;
+
+        public HashingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                this.hash ^= b;
+                this.hash *= FNV_PRIME;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            for (int i = off; i < off + read; i++) {
+                this.hash ^= b[i] & 0xff;
+                this.hash *= FNV_PRIME;
+            }
+            return read;
+        }
+
+        public long skip(long n) throws IOException {
+            // The skipped bytes have to be hashed too
+            byte[] buffer = new byte[(int) Math.min(n, 4096)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = this.read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read == -1)
+                    break;
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * @return long the hash of the bytes read so far
+         */
+        public long getHash() {
+            return Mix(this.hash);
+        }
+    }
+
+    /**
+     * The finalizer of MurmurHash3, every bit of the input affects every bit of the output
+     * @param hash long
+     * @return long
+     */
+    public static long Mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
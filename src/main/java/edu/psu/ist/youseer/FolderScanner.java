@@ -0,0 +1,145 @@
+package edu.psu.ist.youseer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Title: FolderScanner</p>
+ *
+ * <p>Description: Walks the folder of the ARC files in parallel and hands every new ARC file to the submitter as soon as
+ * it's found, so the readers start on the first files while the rest of the tree is still walked. Each folder is a
+ * fork/join task and its subfolders are walked by the other threads of the pool.
+ * The modification time of a folder changes whenever a file is added, removed or renamed in it, so a folder whose ARC files
+ * were all submitted is remembered with its modification time and its subfolders. On the next scans such a folder is not
+ * listed again while its modification time is the same, only its subfolders are visited, and the submitted files it
+ * contains are not looked up again.
+ * A folder containing a file that was just queued is not remembered, it's listed again on the next scan.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class FolderScanner {
+
+    /**
+     * A folder modified less than this number of milliseconds before it was listed is not remembered, the modification
+     * time of some file systems has a granularity of a second or more
+     */
+    private static final long MODIFICATION_GRANULARITY = 2000;
+
+    /**
+     * A folder whose files were all submitted when it was last listed
+     */
+    private static class FolderState {
+        long modified;
+        String[] folders;
+    }
+
+    private ARCSubmitter parent;
+
+    private ForkJoinPool pool;
+
+    private ConcurrentHashMap<String, FolderState> states = new ConcurrentHashMap<String, FolderState>();
+
+    /**
+     *
+     * @param parent ARCSubmitter
+     * @param threads int the number of threads walking the folders
+     */
+    public FolderScanner(ARCSubmitter parent, int threads) {
+        this.parent = parent;
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Walks a folder and its subfolders, the new ARC files are queued while the walk goes on
+     * @param path String the path of the folder
+     */
+    public void Scan(String path) {
+        long start = System.currentTimeMillis();
+        ScanTask task = new ScanTask(path);
+        this.pool.invoke(task);
+        System.err.println("Scanned: " + path + " in " + (System.currentTimeMillis() - start) + " ms, folders listed: " +
+                           task.listed.get() + ", folders unchanged: " + task.unchanged.get() + ", files pending: " +
+                           task.queued.get());
+    }
+
+    public void shutdown() {
+        this.pool.shutdown();
+    }
+
+    private class ScanTask extends RecursiveAction {
+
+        private String path;
+
+        /**
+         * The counters of the whole walk, shared by all the tasks of a scan
+         */
+        private AtomicInteger listed, unchanged, queued;
+
+        ScanTask(String path) {
+            this(path, new AtomicInteger(), new AtomicInteger(), new AtomicInteger());
+        }
+
+        private ScanTask(String path, AtomicInteger listed, AtomicInteger unchanged, AtomicInteger queued) {
+            this.path = path;
+            this.listed = listed;
+            this.unchanged = unchanged;
+            this.queued = queued;
+        }
+
+        protected void compute() {
+            File folder = new File(this.path);
+            long modified = folder.lastModified(); // Read before the listing, a later change gives a new time
+            FolderState state = states.get(this.path);
+            String[] folders;
+            if (state != null && modified != 0 && state.modified == modified) {
+                folders = state.folders;
+                this.unchanged.incrementAndGet();
+            } else {
+                String[] names = folder.list();
+                if (names == null) { // The folder was removed
+                    states.remove(this.path);
+                    return;
+                }
+                this.listed.incrementAndGet();
+                boolean settled = System.currentTimeMillis() - modified > MODIFICATION_GRANULARITY;
+                List<String> subfolders = new ArrayList<String>();
+                for (int i = 0; i < names.length; i++) {
+                    File fi = new File(this.path + "/" + names[i]);
+                    if (fi.isDirectory()) {
+                        subfolders.add(fi.getAbsolutePath());
+                        continue;
+                    }
+                    if (parent.QueueARCFile(fi, this.path + "/" + names[i])) {
+                        this.queued.incrementAndGet();
+                        settled = false; // List it again until the file is submitted
+                    }
+                }
+                folders = subfolders.toArray(new String[subfolders.size()]);
+                if (settled) {
+                    FolderState newState = new FolderState();
+                    newState.modified = modified;
+                    newState.folders = folders;
+                    states.put(this.path, newState);
+                } else
+                    states.remove(this.path);
+            }
+
+            if (folders.length == 0)
+                return;
+            List<ScanTask> tasks = new ArrayList<ScanTask>(folders.length);
+            for (int i = 0; i < folders.length; i++)
+                tasks.add(new ScanTask(folders[i], this.listed, this.unchanged, this.queued));
+            invokeAll(tasks);
+        }
+    }
+}
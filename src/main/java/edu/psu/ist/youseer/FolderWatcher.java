@@ -0,0 +1,133 @@
+package edu.psu.ist.youseer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Title: FolderWatcher</p>
+ *
+ * <p>Description: Watches the folder of the ARC files and its subfolders, and queues an ARC file as soon as it appears.
+ * Heritrix writes an ARC file under a name ending with ".open" and renames it once it's complete, the rename is seen as
+ * the creation of the final name, so the file is handed to the readers right away instead of waiting for the next scan.
+ * The folders created later are watched too, and scanned once when they appear. When the watch service loses events
+ * the whole folder is scanned again; the periodic scan of the submitter stays as a safety net for anything missed.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class FolderWatcher implements Runnable {
+
+    private ARCSubmitter parent;
+
+    private String root;
+
+    private WatchService service;
+
+    /**
+     * The path of every watched folder, as used in the containing file of its records
+     */
+    private Map<WatchKey, String> folders = new HashMap<WatchKey, String>();
+
+    private volatile boolean running = true;
+
+    private Thread watcher;
+
+    /**
+     *
+     * @param parent ARCSubmitter
+     * @param root String the root folder of the ARC files
+     * @throws IOException if the folder can't be watched
+     */
+    public FolderWatcher(ARCSubmitter parent, String root) throws IOException {
+        this.parent = parent;
+        this.root = root;
+        this.service = FileSystems.getDefault().newWatchService();
+        this.register(root);
+        this.watcher = new Thread(this, "FolderWatcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    /**
+     * Watches a folder and all its subfolders
+     * @param path String the path of the folder
+     * @throws IOException
+     */
+    private void register(String path) throws IOException {
+        WatchKey key = Paths.get(path).register(this.service, StandardWatchEventKinds.ENTRY_CREATE);
+        this.folders.put(key, path);
+        String[] names = new File(path).list();
+        if (names == null)
+            return;
+        for (int i = 0; i < names.length; i++) {
+            File fi = new File(path + "/" + names[i]);
+            if (fi.isDirectory())
+                this.register(fi.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Stops watching the folders
+     */
+    public void shutdown() {
+        this.running = false;
+        try {
+            this.service.close();
+        } catch (IOException ex) {}
+    }
+
+    public void run() {
+        while (this.running) {
+            WatchKey key;
+            try {
+                key = this.service.take();
+            } catch (InterruptedException ex) {
+                continue;
+            } catch (ClosedWatchServiceException ex) {
+                break;
+            }
+            String folder = this.folders.get(key);
+            for (Iterator<WatchEvent<?>> iter = key.pollEvents().iterator(); iter.hasNext(); ) {
+                WatchEvent<?> event = iter.next();
+                try {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        System.err.println("Watch events were lost, scanning: " + this.root);
+                        this.parent.ProcessFolder(this.root);
+                        continue;
+                    }
+                    if (folder == null)
+                        continue;
+                    String name = ((Path) event.context()).toString();
+                    File fi = new File(folder + "/" + name);
+                    if (fi.isDirectory()) { // Files may have been written before the folder was watched
+                        this.register(fi.getAbsolutePath());
+                        this.parent.ProcessFolder(fi.getAbsolutePath());
+                    } else
+                        this.parent.QueueARCFile(fi, folder + "/" + name);
+                } catch (Exception ex) {
+                    Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, "Couldn't handle the watch event of " +
+                            folder, ex);
+                }
+            }
+            if (!key.reset())
+                this.folders.remove(key); // The folder was deleted
+        }
+    }
+}
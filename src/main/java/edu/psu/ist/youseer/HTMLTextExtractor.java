@@ -0,0 +1,316 @@
+package edu.psu.ist.youseer;
+
+import net.htmlparser.jericho.CharacterEntityReference;
+
+/**
+ * <p>Title: HTMLTextExtractor</p>
+ *
+ * <p>Description: Extracts, in a single pass over a page, its visible text, its title and the content of its description
+ * and keywords meta tags. The tags, the comments, the processing instructions and the content of the script and style
+ * elements are dropped, the character references are decoded, and every run of white space (or tags) becomes a single
+ * space as the text is appended, so no intermediate copy of the page is made.
+ * The tokenizer is lenient like the browsers: a '&lt;' that doesn't start a tag is kept as text, an unterminated comment or
+ * tag ends the page. The title keeps its text in the visible text too, as the HTML stripper did.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class HTMLTextExtractor {
+
+    /**
+     * The longest character reference decoded, longer ones are kept as text
+     */
+    private static final int MAX_REFERENCE = 32;
+
+    private CharSequence html;
+
+    private int length;
+
+    private int pos = 0;
+
+    private StringBuilder text;
+
+    private boolean space = true; // No leading space
+
+    private StringBuilder title;
+
+    private boolean inTitle = false;
+
+    private boolean titleDone = false;
+
+    private String description;
+
+    private String keywords;
+
+    private HTMLTextExtractor(CharSequence html, StringBuilder text) {
+        this.html = html;
+        this.length = html.length();
+        this.text = text;
+    }
+
+    /**
+     * Extracts the text, the title and the meta description and keywords of a page into the document
+     * @param html CharSequence the page
+     * @param doc SubmitterDocument the document receiving the stripped text, the title and the meta tags
+     */
+    public static void Extract(CharSequence html, SubmitterDocument doc) {
+        HTMLTextExtractor extractor = new HTMLTextExtractor(html, BufferArena.get().getBuilder(html.length()));
+        extractor.parse();
+        int end = extractor.text.length();
+        if (end > 0 && extractor.text.charAt(end - 1) == ' ')
+            end--;
+        doc.setStrippedTextContent(extractor.text.substring(0, end));
+        if (extractor.title != null)
+            doc.setTitle(Collapse(extractor.title));
+        doc.setDescription(extractor.description);
+        doc.setKeywords(extractor.keywords);
+    }
+
+    private void parse() {
+        while (this.pos < this.length) {
+            char c = this.html.charAt(this.pos);
+            if (c == '<' && this.tag())
+                continue;
+            if (c == '&') {
+                int end = this.reference(this.pos);
+                if (end > 0) {
+                    this.pos = end;
+                    continue;
+                }
+            }
+            this.append(c);
+            this.pos++;
+        }
+    }
+
+    /**
+     * Appends a char of visible text, collapsing the white space
+     */
+    private void append(char c) {
+        if (Character.isWhitespace(c) || c == '\u00a0') { // A non breaking space is a space too
+            if (!this.space)
+                this.text.append(' ');
+            this.space = true;
+            if (this.inTitle && this.title.length() > 0 && this.title.charAt(this.title.length() - 1) != ' ')
+                this.title.append(' ');
+        } else {
+            this.text.append(c);
+            this.space = false;
+            if (this.inTitle)
+                this.title.append(c);
+        }
+    }
+
+    /**
+     * Consumes the markup starting at the current '&lt;'
+     * @return boolean false if the '&lt;' doesn't start any markup and is text
+     */
+    private boolean tag() {
+        int start = this.pos + 1;
+        if (start >= this.length)
+            return false;
+        char c = this.html.charAt(start);
+        if (c == '!') {
+            if (this.startsWith(start + 1, "--"))
+                this.pos = this.skipPast(start + 3, "-->");
+            else
+                this.pos = this.skipPast(start, ">");
+            this.append(' ');
+            return true;
+        }
+        if (c == '?') {
+            this.pos = this.skipPast(start, ">");
+            this.append(' ');
+            return true;
+        }
+        boolean closing = c == '/';
+        int nameStart = closing ? start + 1 : start;
+        int nameEnd = nameStart;
+        while (nameEnd < this.length && IsNameChar(this.html.charAt(nameEnd)))
+            nameEnd++;
+        if (nameEnd == nameStart || !Character.isLetter(this.html.charAt(nameStart)))
+            return false; // "a < b" is text
+        String name = this.html.subSequence(nameStart, nameEnd).toString().toLowerCase();
+
+        boolean meta = !closing && name.equals("meta");
+        String metaName = null;
+        String metaContent = null;
+        // The attributes, up to the end of the tag, quoted values may contain '>'
+        int i = nameEnd;
+        while (i < this.length && this.html.charAt(i) != '>') {
+            char a = this.html.charAt(i);
+            if (!meta || !IsNameChar(a)) {
+                i++;
+                if (a == '"' || a == '\'')
+                    i = this.skipPast(i, String.valueOf(a));
+                continue;
+            }
+            int attrStart = i;
+            while (i < this.length && IsNameChar(this.html.charAt(i)))
+                i++;
+            String attr = this.html.subSequence(attrStart, i).toString();
+            while (i < this.length && Character.isWhitespace(this.html.charAt(i)))
+                i++;
+            if (i >= this.length || this.html.charAt(i) != '=')
+                continue;
+            i++;
+            while (i < this.length && Character.isWhitespace(this.html.charAt(i)))
+                i++;
+            int valueStart, valueEnd;
+            if (i < this.length && (this.html.charAt(i) == '"' || this.html.charAt(i) == '\'')) {
+                char quote = this.html.charAt(i);
+                valueStart = i + 1;
+                valueEnd = valueStart;
+                while (valueEnd < this.length && this.html.charAt(valueEnd) != quote)
+                    valueEnd++;
+                i = Math.min(this.length, valueEnd + 1);
+            } else {
+                valueStart = i;
+                while (i < this.length && !Character.isWhitespace(this.html.charAt(i)) && this.html.charAt(i) != '>')
+                    i++;
+                valueEnd = i;
+            }
+            if (attr.equalsIgnoreCase("name") || attr.equalsIgnoreCase("property"))
+                metaName = this.html.subSequence(valueStart, valueEnd).toString().trim().toLowerCase();
+            else if (attr.equalsIgnoreCase("content"))
+                metaContent = this.html.subSequence(valueStart, valueEnd).toString();
+        }
+        this.pos = Math.min(this.length, i + 1);
+
+        if (meta && metaName != null && metaContent != null) {
+            if (metaName.equals("description") && this.description == null)
+                this.description = Decode(metaContent);
+            else if (metaName.equals("keywords") && this.keywords == null)
+                this.keywords = Decode(metaContent);
+        } else if (name.equals("title") && !this.titleDone) {
+            if (closing) {
+                this.inTitle = false;
+                this.titleDone = this.title != null;
+            } else if (this.title == null) {
+                this.title = new StringBuilder();
+                this.inTitle = true;
+                this.append(' ');
+                return true;
+            }
+        } else if (!closing && (name.equals("script") || name.equals("style"))) {
+            // Their content isn't text, it ends at the first closing tag of the element
+            int end = this.indexOfIgnoreCase(this.pos, "</" + name);
+            this.pos = end < 0 ? this.length : this.skipPast(end, ">");
+        }
+        this.append(' ');
+        return true;
+    }
+
+    /**
+     * Decodes the character reference starting at the given '&amp;'
+     * @return int the position after the reference, -1 if it's not a valid reference
+     */
+    private int reference(int start) {
+        int end = start + 1;
+        int max = Math.min(this.length, start + MAX_REFERENCE);
+        while (end < max && this.html.charAt(end) != ';' && !Character.isWhitespace(this.html.charAt(end)) &&
+               this.html.charAt(end) != '&' && this.html.charAt(end) != '<')
+            end++;
+        if (end >= max || this.html.charAt(end) != ';' || end == start + 1)
+            return -1;
+        int codePoint = CodePoint(this.html.subSequence(start + 1, end).toString());
+        if (codePoint < 0)
+            return -1;
+        if (Character.isSupplementaryCodePoint(codePoint)) {
+            char[] chars = Character.toChars(codePoint);
+            this.append(chars[0]);
+            this.append(chars[1]);
+        } else
+            this.append((char) codePoint);
+        return end + 1;
+    }
+
+    /**
+     * @param reference String the reference between '&amp;' and ';', "amp" or "#38" or "#x26"
+     * @return int the code point, -1 if the reference isn't valid
+     */
+    private static int CodePoint(String reference) {
+        try {
+            if (reference.charAt(0) != '#')
+                return CharacterEntityReference.getCodePointFromName(reference);
+            int codePoint;
+            if (reference.length() > 1 && (reference.charAt(1) == 'x' || reference.charAt(1) == 'X'))
+                codePoint = Integer.parseInt(reference.substring(2), 16);
+            else
+                codePoint = Integer.parseInt(reference.substring(1));
+            return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Decodes the character references of an attribute value and collapses its white space
+     */
+    private static String Decode(String value) {
+        HTMLTextExtractor extractor = new HTMLTextExtractor(value, new StringBuilder(value.length()));
+        while (extractor.pos < extractor.length) {
+            char c = value.charAt(extractor.pos);
+            if (c == '&') {
+                int end = extractor.reference(extractor.pos);
+                if (end > 0) {
+                    extractor.pos = end;
+                    continue;
+                }
+            }
+            extractor.append(c);
+            extractor.pos++;
+        }
+        return Collapse(extractor.text);
+    }
+
+    private static String Collapse(StringBuilder sb) {
+        int start = 0;
+        int end = sb.length();
+        while (start < end && sb.charAt(start) == ' ')
+            start++;
+        while (end > start && sb.charAt(end - 1) == ' ')
+            end--;
+        return sb.substring(start, end);
+    }
+
+    private static boolean IsNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == ':' || c == '_';
+    }
+
+    private boolean startsWith(int from, String prefix) {
+        if (from + prefix.length() > this.length)
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (this.html.charAt(from + i) != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return int the position after the first occurrence of the string, the end of the page if there is none
+     */
+    private int skipPast(int from, String s) {
+        for (int i = from; i + s.length() <= this.length; i++) {
+            if (this.startsWith(i, s))
+                return i + s.length();
+        }
+        return this.length;
+    }
+
+    private int indexOfIgnoreCase(int from, String s) {
+        for (int i = from; i + s.length() <= this.length; i++) {
+            boolean match = true;
+            for (int j = 0; j < s.length() && match; j++)
+                match = Character.toLowerCase(this.html.charAt(i + j)) == s.charAt(j);
+            if (match)
+                return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,512 @@
+package edu.psu.ist.youseer;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Title: IndexJournal</p>
+ *
+ * <p>Description: Write-behind journal of the bookkeeping database. The workers and the batch submitter append the
+ * indexed pages, the submission errors and the submitted ARC files to a lock free queue and go on, a dedicated thread
+ * drains the queue and inserts the rows in batches, when the configured number of rows is waiting or when the flush
+ * interval expires. Only the metadata of a document is queued, so its content is released as soon as it's acknowledged.
+ * The rows are written in the order they were queued, thus an ARC file is marked as submitted after the pages it
+ * contains, and a checkpoint of an ARC file is saved after the pages it covers. Each batch is written in explicit transactions of a configurable number of rows, rather than one implicit
+ * transaction (and one disk sync with SQLite) per row.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class IndexJournal implements Runnable {
+
+    private static final int INDEXED_PAGE = 0;
+    private static final int SUBMISSION_ERROR = 1;
+    private static final int SUBMITTED_FILE = 2;
+    private static final int CHECKPOINT = 3;
+    private static final int CLEAR_CHECKPOINT = 4;
+    private static final int NEAR_DUPLICATE = 5;
+    private static final int UNCHANGED = 6;
+
+    /**
+     * The reason of the SubmissionErrors rows of the documents that failed to be processed or submitted
+     */
+    public static final String ERROR = "ERROR";
+
+    /**
+     * The reason of the SubmissionErrors rows of the records skipped because they are larger than the maximum record size
+     */
+    public static final String TOO_LARGE = "RECORD_TOO_LARGE";
+
+    /**
+     * A row waiting to be written
+     */
+    private static class Entry {
+        int type;
+        String url;
+        String dataType;
+        String containingFile;
+        int offset;
+        String message;
+        String reason;
+        NearDuplicateIndex.Canonical canonical;
+        long contentHash;
+        File file;
+        ARCFileTracker.Checkpoint checkpoint;
+        long time = System.currentTimeMillis();
+    }
+
+    private ARCSubmitter parent;
+
+    private ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<Entry>();
+
+    private AtomicInteger pending = new AtomicInteger();
+
+    private AtomicLong enqueued = new AtomicLong();
+
+    /**
+     * The number of rows written (or given up on) so far
+     */
+    private long written = 0;
+
+    private final Object signal = new Object();
+
+    private volatile boolean running = true;
+
+    private volatile boolean flushRequested = false;
+
+    private Thread writer;
+
+    public IndexJournal(ARCSubmitter parent) {
+        this.parent = parent;
+        this.writer = new Thread(this, "IndexJournal-Writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues an IndexedPages row for a document accepted by the index
+     * @param doc SubmitterDocument
+     */
+    public void Indexed(SubmitterDocument doc) {
+        Entry entry = NewEntry(INDEXED_PAGE, doc);
+        this.append(entry);
+    }
+
+    /**
+     * Queues a SubmissionErrors row for a document that couldn't be indexed
+     * @param doc SubmitterDocument
+     * @param message String the error message
+     */
+    public void Failed(SubmitterDocument doc, String message) {
+        this.Failed(doc, ERROR, message);
+    }
+
+    /**
+     * Queues a SubmissionErrors row for a document that couldn't be indexed
+     * @param doc SubmitterDocument
+     * @param reason String the code of the failure, ERROR or one of the reasons of ParseBudgetException
+     * @param message String the error message
+     */
+    public void Failed(SubmitterDocument doc, String reason, String message) {
+        Entry entry = NewEntry(SUBMISSION_ERROR, doc);
+        entry.reason = reason;
+        entry.message = message;
+        this.append(entry);
+    }
+
+    /**
+     * Updates the time a page was last seen, when its record is skipped because its content didn't change
+     * @param url String the URL of the page
+     */
+    public void Unchanged(String url) {
+        Entry entry = new Entry();
+        entry.type = UNCHANGED;
+        entry.url = url;
+        this.append(entry);
+    }
+
+    /**
+     * Queues a NearDuplicates row for a document found to be a near duplicate of a submitted one
+     * @param doc SubmitterDocument the near duplicate
+     * @param canonical NearDuplicateIndex.Canonical the submitted document it duplicates
+     */
+    public void NearDuplicate(SubmitterDocument doc, NearDuplicateIndex.Canonical canonical) {
+        Entry entry = NewEntry(NEAR_DUPLICATE, doc);
+        entry.canonical = canonical;
+        this.append(entry);
+    }
+
+    /**
+     * Queues a SubmittedARCFiles row, written after all the rows queued before it
+     * @param fi File the ARC file
+     */
+    public void FileSubmitted(File fi) {
+        Entry entry = new Entry();
+        entry.type = SUBMITTED_FILE;
+        entry.file = fi;
+        this.append(entry);
+    }
+
+    /**
+     * Queues the checkpoint of an ARC file, replacing its previous checkpoint
+     * @param checkpoint ARCFileTracker.Checkpoint
+     */
+    public void Checkpoint(ARCFileTracker.Checkpoint checkpoint) {
+        Entry entry = new Entry();
+        entry.type = CHECKPOINT;
+        entry.checkpoint = checkpoint;
+        entry.url = checkpoint.Path;
+        this.append(entry);
+    }
+
+    /**
+     * Queues the removal of the checkpoint of an ARC file, once the file is submitted
+     * @param fi File the ARC file
+     */
+    public void ClearCheckpoint(File fi) {
+        Entry entry = new Entry();
+        entry.type = CLEAR_CHECKPOINT;
+        entry.file = fi;
+        this.append(entry);
+    }
+
+    private static Entry NewEntry(int type, SubmitterDocument doc) {
+        Entry entry = new Entry();
+        entry.type = type;
+        entry.url = doc.getUrl();
+        entry.dataType = doc.getDataType();
+        entry.containingFile = doc.getContainingFile();
+        entry.offset = doc.getOffset();
+        entry.contentHash = doc.getContentHash();
+        return entry;
+    }
+
+    private void append(Entry entry) {
+        this.queue.add(entry);
+        this.enqueued.incrementAndGet();
+        if (this.pending.incrementAndGet() == this.parent.Config.JournalBatchSize) {
+            synchronized (this.signal) {
+                this.signal.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until all the rows queued before this call are written
+     * @throws InterruptedException
+     */
+    public void Flush() throws InterruptedException {
+        long target = this.enqueued.get();
+        synchronized (this.signal) {
+            while (this.written < target && this.writer.isAlive()) {
+                this.flushRequested = true;
+                this.signal.notifyAll();
+                this.signal.wait(100);
+            }
+        }
+    }
+
+    /**
+     * Writes the queued rows and stops the writer thread
+     */
+    public void Shutdown() throws InterruptedException {
+        this.Flush();
+        this.running = false;
+        synchronized (this.signal) {
+            this.signal.notifyAll();
+        }
+        this.writer.join();
+    }
+
+    /**
+     * @return int the number of rows waiting to be written
+     */
+    public int getPending() {
+        return this.pending.get();
+    }
+
+    public void run() {
+        List<Entry> batch = new ArrayList<Entry>();
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                synchronized (this.signal) {
+                    if (this.running && !this.flushRequested &&
+                        this.pending.get() < this.parent.Config.JournalBatchSize)
+                        this.signal.wait(this.parent.Config.JournalFlushInterval);
+                    this.flushRequested = false;
+                }
+            } catch (InterruptedException ex) {
+                continue;
+            }
+            Entry entry;
+            while ((entry = this.queue.poll()) != null) {
+                this.pending.decrementAndGet();
+                batch.add(entry);
+                if (batch.size() >= this.parent.Config.JournalBatchSize) {
+                    this.write(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                this.write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of rows in transactions of the configured number of rows. When a transaction fails its rows are written
+     * one by one, so a single bad row doesn't lose the others. A checkpoint queued after a row that couldn't be written is
+     * dropped: the file is then resumed from its previous checkpoint, rather than after a record missing from the database
+     * @param batch List the rows in the order they were queued
+     */
+    private void write(List<Entry> batch) {
+        try {
+            boolean failed = false; // A row of the batch was lost, the checkpoints after it would skip its record
+            int commitRows = this.parent.Config.CommitRows;
+            for (int start = 0; start < batch.size(); start += commitRows) {
+                List<Entry> chunk = batch.subList(start, Math.min(batch.size(), start + commitRows));
+                if (failed)
+                    chunk = WithoutCheckpoints(chunk);
+                Exception ex = this.writeTransaction(chunk);
+                if (ex == null)
+                    continue;
+                Logger.getLogger(Worker.class.getName()).log(Level.WARNING, "Couldn't write a batch of " + chunk.size() +
+                        " rows, writing them separately", ex);
+                for (int i = 0; i < chunk.size(); i++) {
+                    Entry entry = chunk.get(i);
+                    if (entry.type == CHECKPOINT && failed) {
+                        LogDroppedCheckpoint(entry);
+                        continue;
+                    }
+                    ex = this.writeTransaction(chunk.subList(i, i + 1));
+                    if (ex != null) {
+                        failed = true;
+                        Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, "Couldn't write the row of " +
+                                (entry.url != null ? entry.url : entry.file.getAbsolutePath()), ex);
+                    }
+                }
+            }
+        } finally {
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i).type == SUBMITTED_FILE) // Recorded, or given up until the next scan
+                    this.parent.FileRecorded(batch.get(i).file);
+            }
+            synchronized (this.signal) {
+                this.written += batch.size();
+                this.signal.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @param rows List rows queued after a row that couldn't be written
+     * @return List the rows without their checkpoints
+     */
+    private static List<Entry> WithoutCheckpoints(List<Entry> rows) {
+        List<Entry> kept = new ArrayList<Entry>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Entry entry = rows.get(i);
+            if (entry.type != CHECKPOINT)
+                kept.add(entry);
+            else
+                LogDroppedCheckpoint(entry);
+        }
+        return kept;
+    }
+
+    private static void LogDroppedCheckpoint(Entry entry) {
+        Logger.getLogger(Worker.class.getName()).log(Level.WARNING, "Dropped the checkpoint of " + entry.checkpoint.Path +
+                ", a row queued before it couldn't be written");
+    }
+
+    /**
+     * Writes the rows in a single transaction
+     * @param rows List the rows in the order they were queued
+     * @return Exception the reason of the failure, null if the rows were committed
+     */
+    private Exception writeTransaction(List<Entry> rows) {
+        DBConnectionPool.PooledConnection conn = null;
+        try {
+            conn = this.parent.DBPool.borrow();
+            conn.getConnection().setAutoCommit(false);
+            this.writeBatch(conn, rows);
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            this.parent.DBPool.release(conn);
+        } catch (Exception ex) {
+            if (conn != null) {
+                try {
+                    conn.getConnection().rollback();
+                } catch (Exception rollbackEx) {}
+                this.parent.DBPool.discard(conn);
+            }
+            return ex;
+        }
+
+        // Only the committed rows are visible to the rest of the submitter
+        for (int i = 0; i < rows.size(); i++) {
+            Entry entry = rows.get(i);
+            if (this.parent.Schema != null && (entry.type == INDEXED_PAGE || entry.type == SUBMISSION_ERROR))
+                this.parent.Schema.Known(CompactSchema.DocId(entry.url));
+            if (entry.type == INDEXED_PAGE) {
+                this.parent.Count.incrementAndGet();
+                if (entry.contentHash != 0 && this.parent.Fingerprints != null)
+                    this.parent.Fingerprints.Put(Fingerprint.Hash64(entry.url), entry.contentHash);
+            }
+            else if (entry.type == SUBMITTED_FILE)
+                this.parent.SubmittedFiles.Add(entry.file.getAbsolutePath());
+        }
+        return null;
+    }
+
+    /**
+     * Writes the URL of a document to the dictionary of the compact schema, unless it was written recently
+     * @return long the ID of the document
+     * @throws SQLException if the ID is already the ID of another URL, the row isn't written rather than mixed up with
+     * the rows of the other URL
+     */
+    private long documentId(DBConnectionPool.PooledConnection conn, String url) throws SQLException {
+        long docId = CompactSchema.DocId(url);
+        if (this.parent.Schema.IsKnown(docId))
+            return docId;
+        PreparedStatement select = conn.prepare(DBConnectionPool.SELECT_DOCUMENT_URL);
+        select.setLong(1, docId);
+        ResultSet rs = select.executeQuery();
+        String stored = rs.next() ? rs.getString(1) : null;
+        rs.close();
+        if (stored == null) {
+            PreparedStatement insert = conn.prepare(DBConnectionPool.INSERT_DOCUMENT_URL);
+            insert.setLong(1, docId);
+            insert.setString(2, url);
+            insert.executeUpdate();
+        } else if (!stored.equals(url))
+            throw new SQLException("The document ID " + docId + " of " + url + " is already the ID of " + stored);
+        return docId;
+    }
+
+    private void writeBatch(DBConnectionPool.PooledConnection conn, List<Entry> batch) throws SQLException {
+        PreparedStatement pages = null;
+        PreparedStatement errors = null;
+        PreparedStatement duplicates = null;
+        PreparedStatement seen = null;
+        for (int i = 0; i < batch.size(); i++) {
+            Entry entry = batch.get(i);
+            if (entry.type == INDEXED_PAGE || entry.type == SUBMISSION_ERROR) {
+                boolean page = entry.type == INDEXED_PAGE;
+                PreparedStatement rows;
+                // Both schemas have the same columns, the URL and the path are replaced by their IDs in the compact one
+                if (this.parent.Schema != null) {
+                    rows = conn.prepare(page ? DBConnectionPool.INSERT_INDEXED_DOC : DBConnectionPool.INSERT_DOC_ERROR);
+                    rows.setLong(1, this.documentId(conn, entry.url));
+                    rows.setTimestamp(2, new Timestamp(entry.time));
+                    rows.setString(3, entry.dataType);
+                    rows.setInt(4, this.parent.Schema.FileId(entry.containingFile));
+                } else {
+                    rows = conn.prepare(page ? DBConnectionPool.INSERT_INDEXED_PAGE :
+                                        DBConnectionPool.INSERT_SUBMISSION_ERROR);
+                    rows.setString(1, entry.url);
+                    rows.setTimestamp(2, new Timestamp(entry.time));
+                    rows.setString(3, entry.dataType);
+                    rows.setString(4, entry.containingFile);
+                }
+                rows.setInt(5, entry.offset);
+                if (!page) {
+                    rows.setString(6, entry.message);
+                    rows.setString(7, entry.reason);
+                    errors = rows;
+                } else
+                    pages = rows;
+                rows.addBatch();
+                if (page && entry.contentHash != 0 && this.parent.Fingerprints != null) {
+                    // The fingerprint of the indexed content replaces the previous one of the URL
+                    long urlHash = Fingerprint.Hash64(entry.url);
+                    PreparedStatement update = conn.prepare(DBConnectionPool.UPDATE_FINGERPRINT);
+                    update.setLong(1, entry.contentHash);
+                    update.setTimestamp(2, new Timestamp(entry.time));
+                    update.setLong(3, urlHash);
+                    if (update.executeUpdate() == 0) {
+                        PreparedStatement insert = conn.prepare(DBConnectionPool.INSERT_FINGERPRINT);
+                        insert.setLong(1, urlHash);
+                        insert.setLong(2, entry.contentHash);
+                        insert.setTimestamp(3, new Timestamp(entry.time));
+                        insert.executeUpdate();
+                    }
+                }
+            } else if (entry.type == UNCHANGED) {
+                seen = conn.prepare(DBConnectionPool.UPDATE_LAST_SEEN);
+                seen.setTimestamp(1, new Timestamp(entry.time));
+                seen.setLong(2, Fingerprint.Hash64(entry.url));
+                seen.addBatch();
+            } else if (entry.type == NEAR_DUPLICATE) {
+                duplicates = conn.prepare(DBConnectionPool.INSERT_NEAR_DUPLICATE);
+                duplicates.setString(1, entry.url);
+                duplicates.setTimestamp(2, new Timestamp(entry.time));
+                duplicates.setString(3, entry.containingFile);
+                duplicates.setInt(4, entry.offset);
+                duplicates.setString(5, entry.canonical.Url);
+                duplicates.setInt(6, entry.canonical.Distance);
+                // The canonical document is found through its ID or its IndexedPages row when its URL isn't kept
+                duplicates.setLong(7, entry.canonical.UrlHash);
+                duplicates.setString(8, entry.canonical.ContainingFile);
+                duplicates.setInt(9, entry.canonical.Offset);
+                duplicates.addBatch();
+            } else if (entry.type == CHECKPOINT || entry.type == CLEAR_CHECKPOINT) {
+                // The pages of the file are in the same transaction, or in a committed one
+                String path = entry.type == CHECKPOINT ? entry.checkpoint.Path : entry.file.getAbsolutePath();
+                PreparedStatement delete = conn.prepare(DBConnectionPool.DELETE_CHECKPOINT);
+                delete.setString(1, path);
+                delete.executeUpdate();
+                if (entry.type == CHECKPOINT) {
+                    PreparedStatement insert = conn.prepare(DBConnectionPool.INSERT_CHECKPOINT);
+                    insert.setString(1, path);
+                    insert.setLong(2, entry.checkpoint.SeekOffset);
+                    insert.setInt(3, entry.checkpoint.SeekIndex);
+                    insert.setInt(4, entry.checkpoint.ResumeIndex);
+                    insert.setTimestamp(5, new Timestamp(entry.time));
+                    insert.executeUpdate();
+                }
+            } else {
+                // The pages queued before the file are written first
+                if (pages != null)
+                    pages.executeBatch();
+                if (errors != null)
+                    errors.executeBatch();
+                if (duplicates != null)
+                    duplicates.executeBatch();
+                if (seen != null)
+                    seen.executeBatch();
+                pages = null;
+                errors = null;
+                duplicates = null;
+                seen = null;
+                PreparedStatement files = conn.prepare(DBConnectionPool.INSERT_SUBMITTED_FILE);
+                files.setString(1, entry.file.getAbsolutePath());
+                files.setTimestamp(2, new Timestamp(entry.time));
+                files.executeUpdate();
+            }
+        }
+        if (pages != null)
+            pages.executeBatch();
+        if (errors != null)
+            errors.executeBatch();
+        if (duplicates != null)
+            duplicates.executeBatch();
+        if (seen != null)
+            seen.executeBatch();
+    }
+}
@@ -0,0 +1,205 @@
+package edu.psu.ist.youseer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>Title: MappedARCReader</p>
+ *
+ * <p>Description: Reads an uncompressed ARC file through a read only memory mapping of the whole file. The record headers
+ * and the HTTP headers are parsed directly from the mapped region, and the body of each record is returned as a read only
+ * slice of the mapping, so the content is never copied to the heap by the reader; the workers read it through
+ * ByteBufferInputStream, and the pages are shared with the page cache of the operating system.
+ * Both versions of the ARC header line are understood: the URL is its first field, the mimetype its fourth one and the
+ * length of the record its last one. The mapping stays valid after the reader is closed, until the last slice is collected.
+ * Files larger than 2 GB, or compressed, are read by the Heritrix reader instead.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class MappedARCReader {
+
+    private static final byte[] MAGIC = {'f', 'i', 'l', 'e', 'd', 'e', 's', 'c', ':', '/', '/'};
+
+    /**
+     * A record of the ARC file, its body is a slice of the mapping
+     */
+    public static class Record {
+        public String Url;
+        public String Mimetype;
+        /**
+         * The HTTP status code, -1 if the record isn't an HTTP response
+         */
+        public int StatusCode = -1;
+        /**
+         * The offset in the file of the record header
+         */
+        public long Offset;
+        /**
+         * The length of the record content, HTTP headers included
+         */
+        public long Length;
+        /**
+         * The value of the Content-Type HTTP header, null if there is none
+         */
+        public String ContentType;
+        /**
+         * The content after the HTTP headers, read only
+         */
+        public ByteBuffer Body;
+    }
+
+    private MappedByteBuffer map;
+
+    private int position;
+
+    /**
+     * @param fi File the ARC file
+     * @return boolean true if the file is an uncompressed ARC file that can be mapped at once
+     */
+    public static boolean IsMappable(File fi) {
+        if (fi.getName().endsWith(".gz") || fi.length() <= MAGIC.length || fi.length() > Integer.MAX_VALUE)
+            return false;
+        byte[] head = new byte[MAGIC.length];
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(fi);
+            int read = 0;
+            while (read < head.length) {
+                int n = in.read(head, read, head.length - read);
+                if (n == -1)
+                    return false;
+                read += n;
+            }
+        } catch (IOException ex) {
+            return false;
+        } finally {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException ex) {}
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (head[i] != MAGIC[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @param fi File the ARC file
+     * @param start long the offset of the first record to read, 0 for the beginning of the file
+     * @throws IOException
+     */
+    public MappedARCReader(File fi, long start) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fi, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            this.map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        this.position = (int) Math.min(start, this.map.limit());
+    }
+
+    /**
+     * @return Record the next record of the file, null at the end of the file
+     * @throws IOException if a record header is malformed
+     */
+    public Record next() throws IOException {
+        int limit = this.map.limit();
+        // Skip the separators between the records
+        while (this.position < limit && (this.map.get(this.position) == '\n' || this.map.get(this.position) == '\r'))
+            this.position++;
+        if (this.position >= limit)
+            return null;
+
+        Record record = new Record();
+        record.Offset = this.position;
+        int lineEnd = this.indexOf('\n', this.position, limit);
+        String header = this.ascii(this.position, lineEnd).trim();
+        String[] fields = header.split(" ");
+        if (fields.length < 5)
+            throw new IOException("Malformed ARC header at offset " + record.Offset + ": " + header);
+        record.Url = fields[0];
+        record.Mimetype = fields[3];
+        try {
+            record.Length = Long.parseLong(fields[fields.length - 1]);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Malformed ARC header at offset " + record.Offset + ": " + header);
+        }
+
+        int contentStart = Math.min(limit, lineEnd + 1);
+        int contentEnd = (int) Math.min(limit, contentStart + record.Length); // A truncated file ends the last record
+        this.position = contentEnd;
+
+        int bodyStart = contentStart;
+        if (record.Url.startsWith("http"))
+            bodyStart = this.parseHttpHeaders(record, contentStart, contentEnd);
+        ByteBuffer body = this.map.duplicate();
+        body.limit(contentEnd);
+        body.position(bodyStart);
+        record.Body = body.slice().asReadOnlyBuffer();
+        return record;
+    }
+
+    /**
+     * Reads the status line and the Content-Type header of an HTTP response
+     * @return int the offset of the body, the start of the content if it isn't an HTTP response
+     */
+    private int parseHttpHeaders(Record record, int start, int end) {
+        int lineEnd = this.indexOf('\n', start, end);
+        String statusLine = this.ascii(start, lineEnd).trim();
+        if (!statusLine.startsWith("HTTP/"))
+            return start;
+        String[] status = statusLine.split(" ");
+        if (status.length >= 2) {
+            try {
+                record.StatusCode = Integer.parseInt(status[1]);
+            } catch (NumberFormatException ex) {}
+        }
+        int lineStart = lineEnd + 1;
+        while (lineStart < end) {
+            lineEnd = this.indexOf('\n', lineStart, end);
+            String line = this.ascii(lineStart, lineEnd).trim();
+            lineStart = lineEnd + 1;
+            if (line.length() == 0)
+                return Math.min(lineStart, end);
+            if (line.regionMatches(true, 0, "Content-Type:", 0, 13))
+                record.ContentType = line.substring(13).trim();
+        }
+        return end; // No blank line, the response has no body
+    }
+
+    private int indexOf(char c, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (this.map.get(i) == c)
+                return i;
+        }
+        return limit;
+    }
+
+    private String ascii(int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = from; i < to; i++)
+            chars[i - from] = (char) (this.map.get(i) & 0xff);
+        return new String(chars);
+    }
+
+    /**
+     * Releases the reader, the slices already returned stay valid
+     */
+    public void close() {
+        this.map = null;
+    }
+}
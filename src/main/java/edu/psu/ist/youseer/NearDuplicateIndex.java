@@ -0,0 +1,302 @@
+package edu.psu.ist.youseer;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: NearDuplicateIndex</p>
+ *
+ * <p>Description: Finds the documents whose stripped text is nearly the same as the text of a document submitted before,
+ * the session id variants, print views and calendar pages of a crawl. The text is summarized by a 64 bit SimHash of its
+ * pairs of consecutive words; two texts differing by a few words have SimHashes differing by a few bits.
+ * The SimHashes of the submitted documents are kept in primitive arrays, and the 64 bits are cut in distance + 1 bands:
+ * two SimHashes within the distance are equal on at least one band, so each band has a table from its value to the last
+ * SimHash having it, and the SimHashes sharing a band value are chained. A lookup only compares the SimHashes found in
+ * the chains of its bands.
+ * A submitted document is kept as the hash of its URL and its place in the ARC files (the containing file, shared by all
+ * its records, and the record offset), which locate its IndexedPages row; its URL is only kept when the near duplicates
+ * point to it. The index holds the most recent documents up to its capacity, the oldest ones are then overwritten: every
+ * entry has a sequence number, and a chain stops at an entry that isn't older than the one before it.
+ * A document is added as soon as it's checked, so two copies processed at the same time are still found. If the document
+ * is then not submitted, it's removed, and the next copy becomes the document the others duplicate.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class NearDuplicateIndex {
+
+    /**
+     * The fewest pairs of words a text needs to be checked, shorter texts share too many bits by chance
+     */
+    private static final int MIN_FEATURES = 8;
+
+    /**
+     * The most SimHashes compared in the chain of a band, a band value shared by thousands of documents is not selective
+     */
+    private static final int MAX_CHAIN = 64;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The largest distance searched. The bands of a distance of 8 are 7 bits wide, so already 1 in 128 documents shares a
+     * band value with any other; wider distances make bands so small that the chains, cut at MAX_CHAIN, miss most matches
+     */
+    public static final int MAX_DISTANCE = 8;
+
+    /**
+     * The submitted document a near duplicate duplicates, as it was when the near duplicate was found
+     */
+    public static class Canonical {
+        /**
+         * The 64 bit hash of the URL of the document, its document ID in the compact schema
+         */
+        public long UrlHash;
+        /**
+         * The URL of the document, null unless the URLs are kept
+         */
+        public String Url;
+        public String ContainingFile;
+        public int Offset;
+        /**
+         * The number of different bits between the SimHashes of the two documents
+         */
+        public int Distance;
+    }
+
+    private int distance;
+
+    private int capacity;
+
+    private int[] shifts;
+
+    private long[] masks;
+
+    private Long2IntOpenHashMap[] heads;
+
+    private long[] simHashes = new long[INITIAL_CAPACITY];
+
+    private int[][] chains;
+
+    /**
+     * The sequence number of the document in each slot, the slots are reused from the oldest one once the index is full
+     */
+    private long[] sequences = new long[INITIAL_CAPACITY];
+
+    private long[] urlHashes = new long[INITIAL_CAPACITY];
+
+    private String[] containingFiles = new String[INITIAL_CAPACITY];
+
+    private int[] offsets = new int[INITIAL_CAPACITY];
+
+    /**
+     * The URLs of the submitted documents, null unless the near duplicates point to them
+     */
+    private String[] urls;
+
+    /**
+     * The slots of the documents that were not submitted after all, they are no longer found
+     */
+    private BitSet removed = new BitSet();
+
+    private int count = 0;
+
+    private long next = 0;
+
+    private AtomicLong checked = new AtomicLong();
+
+    private AtomicLong duplicates = new AtomicLong();
+
+    /**
+     *
+     * @param distance int the largest number of different bits between the SimHashes of two near duplicates, at most
+     * MAX_DISTANCE
+     * @param capacity int the most documents kept, the oldest ones are forgotten first
+     * @param keepUrls boolean true to keep the URL of every submitted document, so a duplicate can point to it
+     */
+    public NearDuplicateIndex(int distance, int capacity, boolean keepUrls) {
+        this.distance = distance;
+        this.capacity = capacity;
+        int bands = distance + 1;
+        this.shifts = new int[bands];
+        this.masks = new long[bands];
+        this.heads = new Long2IntOpenHashMap[bands];
+        this.chains = new int[bands][INITIAL_CAPACITY];
+        int shift = 0;
+        for (int i = 0; i < bands; i++) {
+            int width = 64 / bands + (i < 64 % bands ? 1 : 0);
+            this.shifts[i] = shift;
+            this.masks[i] = width == 64 ? -1L : (1L << width) - 1;
+            this.heads[i] = new Long2IntOpenHashMap();
+            this.heads[i].defaultReturnValue(-1);
+            shift += width;
+        }
+        if (keepUrls)
+            this.urls = new String[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Computes the SimHash of a text from its pairs of consecutive words, the words are compared ignoring the case
+     * @param text CharSequence the stripped text of a document
+     * @return long the SimHash, 0 if the text is too short to be compared
+     */
+    public static long SimHash(CharSequence text) {
+        int[] weights = new int[64];
+        int features = 0;
+        long previous = 0;
+        boolean first = true;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i)))
+                i++;
+            if (i == length)
+                break;
+            long word = 0xcbf29ce484222325L;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                word ^= Character.toLowerCase(text.charAt(i++));
+                word *= 0x100000001b3L;
+            }
+            if (!first) {
+                long feature = Fingerprint.Mix(previous * 31 + word);
+                for (int bit = 0; bit < 64; bit++)
+                    weights[bit] += ((feature >>> bit) & 1) == 1 ? 1 : -1;
+                features++;
+            }
+            previous = word;
+            first = false;
+        }
+        if (features < MIN_FEATURES)
+            return 0;
+        long simHash = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0)
+                simHash |= 1L << bit;
+        }
+        return simHash == 0 ? 1 : simHash; // 0 means not compared
+    }
+
+    /**
+     * Looks for a near duplicate of a document among the documents submitted so far, and adds the document if it has none.
+     * The entry of an added document is set in it, so it can be removed if it's not submitted
+     * @param simHash long the SimHash of the document, not 0
+     * @param doc SubmitterDocument the document
+     * @return Canonical the document it duplicates, null if the document is new
+     */
+    public synchronized Canonical CheckAndAdd(long simHash, SubmitterDocument doc) {
+        this.checked.incrementAndGet();
+        for (int band = 0; band < this.heads.length; band++) {
+            int candidate = this.heads[band].get(this.key(simHash, band));
+            long previous = Long.MAX_VALUE;
+            for (int n = 0; candidate >= 0 && n < MAX_CHAIN; n++) {
+                if (this.sequences[candidate] >= previous)
+                    break; // The slot was reused, the rest of the chain was forgotten
+                previous = this.sequences[candidate];
+                int bits = Long.bitCount(simHash ^ this.simHashes[candidate]);
+                if (bits <= this.distance && !this.removed.get(candidate)) {
+                    this.duplicates.incrementAndGet();
+                    Canonical canonical = new Canonical();
+                    canonical.UrlHash = this.urlHashes[candidate];
+                    canonical.Url = this.urls == null ? null : this.urls[candidate];
+                    canonical.ContainingFile = this.containingFiles[candidate];
+                    canonical.Offset = this.offsets[candidate];
+                    canonical.Distance = bits;
+                    return canonical;
+                }
+                candidate = this.chains[band][candidate];
+            }
+        }
+        doc.setNearDuplicateEntry(this.add(simHash, doc));
+        return null;
+    }
+
+    /**
+     * Removes a document that was added but couldn't be submitted
+     * @param entry long the entry set in the document by CheckAndAdd, nothing is done if it's negative or was forgotten
+     */
+    public synchronized void Remove(long entry) {
+        if (entry < 0)
+            return;
+        int slot = (int) (entry % this.capacity);
+        if (slot < this.count && this.sequences[slot] == entry)
+            this.removed.set(slot);
+    }
+
+    private long key(long simHash, int band) {
+        return (simHash >>> this.shifts[band]) & this.masks[band];
+    }
+
+    /**
+     * @return long the sequence number of the document
+     */
+    private long add(long simHash, SubmitterDocument doc) {
+        long sequence = this.next++;
+        int slot = (int) (sequence % this.capacity);
+        if (slot == this.count) {
+            if (this.count == this.simHashes.length)
+                this.grow();
+            this.count++;
+        } else { // The oldest document is forgotten
+            for (int band = 0; band < this.heads.length; band++) {
+                long key = this.key(this.simHashes[slot], band);
+                if (this.heads[band].get(key) == slot)
+                    this.heads[band].remove(key);
+            }
+            this.removed.clear(slot);
+        }
+        this.simHashes[slot] = simHash;
+        this.sequences[slot] = sequence;
+        this.urlHashes[slot] = Fingerprint.Hash64(doc.getUrl());
+        this.containingFiles[slot] = doc.getContainingFile();
+        this.offsets[slot] = doc.getOffset();
+        if (this.urls != null)
+            this.urls[slot] = doc.getUrl();
+        for (int band = 0; band < this.heads.length; band++)
+            this.chains[band][slot] = this.heads[band].put(this.key(simHash, band), slot);
+        return sequence;
+    }
+
+    private void grow() {
+        int size = (int) Math.min(this.capacity, this.count * 2L);
+        long[] larger = new long[size];
+        System.arraycopy(this.simHashes, 0, larger, 0, this.count);
+        this.simHashes = larger;
+        larger = new long[size];
+        System.arraycopy(this.sequences, 0, larger, 0, this.count);
+        this.sequences = larger;
+        larger = new long[size];
+        System.arraycopy(this.urlHashes, 0, larger, 0, this.count);
+        this.urlHashes = larger;
+        String[] files = new String[size];
+        System.arraycopy(this.containingFiles, 0, files, 0, this.count);
+        this.containingFiles = files;
+        int[] offsets = new int[size];
+        System.arraycopy(this.offsets, 0, offsets, 0, this.count);
+        this.offsets = offsets;
+        if (this.urls != null) {
+            String[] urls = new String[size];
+            System.arraycopy(this.urls, 0, urls, 0, this.count);
+            this.urls = urls;
+        }
+        for (int band = 0; band < this.chains.length; band++) {
+            int[] chain = new int[size];
+            System.arraycopy(this.chains[band], 0, chain, 0, this.count);
+            this.chains[band] = chain;
+        }
+    }
+
+    public synchronized int size() {
+        return this.count;
+    }
+
+    /**
+     * @return String the documents checked and the near duplicates found, for the log
+     */
+    public String getStatus() {
+        return "Near duplicates: " + this.duplicates.get() + " of " + this.checked.get() + " documents";
+    }
+}
@@ -0,0 +1,43 @@
+package edu.psu.ist.youseer;
+
+import org.apache.tika.exception.TikaException;
+
+/**
+ * <p>Title: ParseBudgetException</p>
+ *
+ * <p>Description: Thrown when the parsing of a record ran past its time budget or produced more text than its character
+ * budget. The record isn't submitted, it's written to the SubmissionErrors table with the reason of the exception.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class ParseBudgetException extends TikaException {
+
+    /**
+     * The parse ran past its time budget
+     */
+    public static final String TIMEOUT = "PARSE_TIMEOUT";
+
+    /**
+     * The parse produced more text than its character budget
+     */
+    public static final String TOO_LONG = "PARSE_TOO_LONG";
+
+    private String reason;
+
+    public ParseBudgetException(String reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    /**
+     * @return String TIMEOUT or TOO_LONG
+     */
+    public String getReason() {
+        return this.reason;
+    }
+}
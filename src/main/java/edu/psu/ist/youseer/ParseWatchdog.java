@@ -0,0 +1,225 @@
+package edu.psu.ist.youseer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: ParseWatchdog</p>
+ *
+ * <p>Description: Bounds the time and the text of the parsing of every binary record, so a malformed PDF or a huge
+ * spreadsheet can't keep a worker busy for minutes. Each parse gets a Budget; the parser finds it exceeded the next time
+ * it reads the content or writes text, and the watchdog thread interrupts the worker when the time budget runs out, for
+ * the parsers blocked or busy between two reads. A parser spinning without reading nor writing can't be stopped from
+ * another thread, it's abandoned as soon as it returns.
+ * The records that ran over are counted by data type, to tune the indexed data types.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class ParseWatchdog implements Runnable {
+
+    /**
+     * The longest time between two checks of the running parses, in milliseconds
+     */
+    private static final long CHECK_INTERVAL = 1000;
+
+    /**
+     * The budget of a parse, checked by the reads of the content and the writes of the text
+     */
+    public static class Budget {
+        private Thread thread = Thread.currentThread();
+        private long deadline;
+        private long maxChars;
+        private long chars = 0;
+        private volatile String exceeded;
+        private boolean done = false;
+        private boolean interrupted = false;
+
+        private Budget(long timeout, long maxChars) {
+            this.deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+            this.maxChars = maxChars;
+        }
+
+        /**
+         * Counts the text produced by the parser
+         * @param count int the number of chars written
+         * @throws IOException if the budget is exceeded
+         */
+        public void addChars(int count) throws IOException {
+            this.chars += count;
+            if (this.maxChars > 0 && this.chars > this.maxChars && this.exceeded == null)
+                this.exceeded = ParseBudgetException.TOO_LONG;
+            this.check();
+        }
+
+        /**
+         * @throws IOException if the budget is exceeded, the parser gives up the record
+         */
+        public void check() throws IOException {
+            if (this.exceeded == null && this.deadline > 0 && System.currentTimeMillis() > this.deadline)
+                this.exceeded = ParseBudgetException.TIMEOUT;
+            if (this.exceeded != null)
+                throw new InterruptedIOException("Parse budget exceeded: " + this.exceeded);
+        }
+
+        /**
+         * @return String the reason the budget was exceeded, null if it wasn't
+         */
+        public String getExceeded() {
+            return this.exceeded;
+        }
+
+        /**
+         * @return long the number of chars written so far
+         */
+        public long getChars() {
+            return this.chars;
+        }
+
+        /**
+         * @param in InputStream the content of the record
+         * @return InputStream the content, checking the budget before every read
+         */
+        public InputStream wrap(InputStream in) {
+            return new FilterInputStream(in) {
+                public int read() throws IOException {
+                    Budget.this.check();
+                    return super.read();
+                }
+
+                public int read(byte[] b, int off, int len) throws IOException {
+                    Budget.this.check();
+                    return super.read(b, off, len);
+                }
+
+                public long skip(long n) throws IOException {
+                    Budget.this.check();
+                    return super.skip(n);
+                }
+            };
+        }
+
+        private synchronized void expire() {
+            if (this.done || this.exceeded != null)
+                return;
+            this.exceeded = ParseBudgetException.TIMEOUT;
+            this.interrupted = true;
+            this.thread.interrupt();
+        }
+
+        private synchronized boolean finish() {
+            this.done = true;
+            return this.interrupted;
+        }
+    }
+
+    private long timeout;
+
+    private long maxChars;
+
+    private Set<Budget> active = Collections.newSetFromMap(new ConcurrentHashMap<Budget, Boolean>());
+
+    private ConcurrentMap<String, AtomicLong> timeouts = new ConcurrentHashMap<String, AtomicLong>();
+
+    private ConcurrentMap<String, AtomicLong> tooLong = new ConcurrentHashMap<String, AtomicLong>();
+
+    private volatile boolean running = true;
+
+    private Thread watcher;
+
+    /**
+     *
+     * @param timeout long the time budget of a parse in milliseconds, 0 for no limit
+     * @param maxChars long the character budget of a parse, 0 for no limit
+     */
+    public ParseWatchdog(long timeout, long maxChars) {
+        this.timeout = timeout;
+        this.maxChars = maxChars;
+        if (timeout > 0) {
+            this.watcher = new Thread(this, "ParseWatchdog");
+            this.watcher.setDaemon(true);
+            this.watcher.start();
+        }
+    }
+
+    /**
+     * Starts the budget of a parse on the calling thread
+     * @return Budget
+     */
+    public Budget start() {
+        Budget budget = new Budget(this.timeout, this.maxChars);
+        if (this.watcher != null)
+            this.active.add(budget);
+        return budget;
+    }
+
+    /**
+     * Ends the budget of a parse, it's called on the thread that started it
+     * @param budget Budget
+     * @param mimetype String the data type of the record, counted if the budget was exceeded
+     */
+    public void finish(Budget budget, String mimetype) {
+        this.active.remove(budget);
+        if (budget.finish())
+            Thread.interrupted(); // Clears the interrupt of the watchdog, the worker goes on with the next record
+        String exceeded = budget.getExceeded();
+        if (exceeded != null)
+            Count(exceeded.equals(ParseBudgetException.TIMEOUT) ? this.timeouts : this.tooLong, mimetype);
+    }
+
+    private static void Count(ConcurrentMap<String, AtomicLong> counts, String mimetype) {
+        AtomicLong count = counts.get(mimetype);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = counts.putIfAbsent(mimetype, created);
+            if (count == null)
+                count = created;
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Stops the watchdog thread
+     */
+    public void shutdown() {
+        this.running = false;
+        if (this.watcher != null)
+            this.watcher.interrupt();
+    }
+
+    public void run() {
+        long interval = Math.min(CHECK_INTERVAL, Math.max(1, this.timeout / 4));
+        while (this.running) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException ex) {
+                continue;
+            }
+            long now = System.currentTimeMillis();
+            for (Iterator<Budget> iter = this.active.iterator(); iter.hasNext(); ) {
+                Budget budget = iter.next();
+                if (now > budget.deadline)
+                    budget.expire();
+            }
+        }
+    }
+
+    /**
+     * @return String the records that ran over their budget by data type, for the log
+     */
+    public String getStatus() {
+        return "Parse timeouts: " + this.timeouts + ", too long: " + this.tooLong;
+    }
+}
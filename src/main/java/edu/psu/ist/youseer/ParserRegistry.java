@@ -0,0 +1,211 @@
+package edu.psu.ist.youseer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * <p>Title: ParserRegistry</p>
+ *
+ * <p>Description: Maps the indexed data types to the Tika parsers that handle them. The registry is built once at startup
+ * from the default Tika configuration and its parsers are shared by all the workers, the Tika parsers keep no state
+ * between two documents. A record is parsed on the worker thread by the parser of the type given by the ARC file, the type
+ * is detected from the content only when no parser is registered for it, or when its parser fails on the record, which
+ * happens when the server labeled the record with a wrong type.
+ * Every parse runs under the budget of the ParseWatchdog, both attempts of a mislabeled record share it.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class ParserRegistry {
+
+    private Map<String, Parser> parsers = new HashMap<String, Parser>();
+
+    private AutoDetectParser detector;
+
+    private ParseWatchdog watchdog;
+
+    private final AtomicLong parsed = new AtomicLong();
+
+    private final AtomicLong detected = new AtomicLong();
+
+    private final AtomicLong mislabeled = new AtomicLong();
+
+    /**
+     *
+     * @param indexedTypes Collection the data types indexed by the submitter
+     * @param watchdog ParseWatchdog bounds the time and the text of every parse
+     * @throws TikaException if the default Tika configuration can't be loaded
+     */
+    public ParserRegistry(Collection<?> indexedTypes, ParseWatchdog watchdog) throws TikaException {
+        this.watchdog = watchdog;
+        TikaConfig config = TikaConfig.getDefaultConfig();
+        this.detector = new AutoDetectParser(config);
+        Map<String, Parser> known = config.getParsers();
+        for (Object type : indexedTypes) {
+            String mimetype = BaseType(type.toString());
+            Parser parser = known.get(mimetype);
+            if (parser != null)
+                this.parsers.put(mimetype, parser);
+            else if (!mimetype.startsWith("text"))
+                Logger.getLogger(ParserRegistry.class.getName()).log(Level.INFO,
+                        "No parser registered for " + mimetype + ", its records will be detected from their content");
+        }
+    }
+
+    /**
+     * @param mimetype String the data type of a record
+     * @return Parser the parser registered for the type, null if the type has to be detected
+     */
+    public Parser getParser(String mimetype) {
+        return mimetype == null ? null : this.parsers.get(BaseType(mimetype));
+    }
+
+    /**
+     * Extracts the text of a binary record on the calling thread
+     * @param doc SubmitterDocument the record
+     * @param text StringBuilder receives the text of the record, it's cleared first
+     * @return Metadata the metadata of the record, the title among them
+     * @throws IOException
+     * @throws SAXException
+     * @throws TikaException if the record can't be parsed, even as the detected type
+     * @throws ParseBudgetException if the parse ran past its time budget or its character budget
+     */
+    public Metadata Parse(SubmitterDocument doc, StringBuilder text) throws IOException, SAXException, TikaException {
+        ParseWatchdog.Budget budget = this.watchdog.start();
+        try {
+            return this.parse(doc, text, budget);
+        } catch (Exception ex) {
+            if (budget.getExceeded() != null) // Whatever the parser made of the exception of the budget
+                throw new ParseBudgetException(budget.getExceeded(), "Parsing of " + doc.getDataType() +
+                        " record gave up after " + budget.getChars() + " chars: " + budget.getExceeded());
+            if (ex instanceof IOException)
+                throw (IOException) ex;
+            if (ex instanceof SAXException)
+                throw (SAXException) ex;
+            if (ex instanceof TikaException)
+                throw (TikaException) ex;
+            throw (RuntimeException) ex;
+        } finally {
+            this.watchdog.finish(budget, doc.getDataType() == null ? "" : BaseType(doc.getDataType()));
+        }
+    }
+
+    private Metadata parse(SubmitterDocument doc, StringBuilder text, ParseWatchdog.Budget budget) throws IOException,
+            SAXException, TikaException {
+        Parser parser = this.getParser(doc.getDataType());
+        if (parser != null) {
+            Metadata md = new Metadata();
+            md.set(Metadata.CONTENT_TYPE, doc.getDataType());
+            try {
+                this.parse(parser, doc, text, md, budget);
+                this.parsed.incrementAndGet();
+                return md;
+            } catch (Exception ex) {
+                if (budget.getExceeded() != null)
+                    throw new InterruptedIOException(budget.getExceeded());
+                // Mislabeled record, try again with the type found in its content. The content is in memory, so even an
+                // IOException comes from the format, PDFBox reports a malformed header that way
+                this.mislabeled.incrementAndGet();
+            }
+        } else
+            this.detected.incrementAndGet();
+        Metadata md = new Metadata();
+        md.set(Metadata.RESOURCE_NAME_KEY, doc.getUrl());
+        this.parse(this.detector, doc, text, md, budget);
+        return md;
+    }
+
+    private void parse(Parser parser, SubmitterDocument doc, StringBuilder text, Metadata md,
+                       ParseWatchdog.Budget budget) throws IOException, SAXException, TikaException {
+        text.setLength(0);
+        InputStream is = budget.wrap(doc.openContentStream()); // Reads the mapped record in place, without a copy
+        try {
+            parser.parse(is, new BodyContentHandler(new BuilderWriter(text, budget)), md);
+        } finally {
+            is.close();
+        }
+        budget.check(); // The parser may have swallowed the exception of the budget
+    }
+
+    /**
+     * @return String the data type without its parameters, in lower case
+     */
+    private static String BaseType(String mimetype) {
+        int semicolon = mimetype.indexOf(';');
+        if (semicolon >= 0)
+            mimetype = mimetype.substring(0, semicolon);
+        return mimetype.trim().toLowerCase();
+    }
+
+    /**
+     * @return String the records parsed by their registered parser and by a detected one, and the records that ran over
+     * their budget, for the log
+     */
+    public String getStatus() {
+        return "Parsed by type: " + this.parsed.get() + ", detected: " + this.detected.get() + ", mislabeled: " +
+               this.mislabeled.get() + ", " + this.watchdog.getStatus();
+    }
+
+    /**
+     * Stops the watchdog of the parses
+     */
+    public void shutdown() {
+        this.watchdog.shutdown();
+    }
+
+    /**
+     * Appends the text written by the content handler to a builder, unlike a StringWriter it doesn't synchronize nor
+     * allocate its own buffer. The text is counted against the budget of the parse
+     */
+    private static class BuilderWriter extends Writer {
+
+        private StringBuilder builder;
+
+        private ParseWatchdog.Budget budget;
+
+        public BuilderWriter(StringBuilder builder, ParseWatchdog.Budget budget) {
+            this.builder = builder;
+            this.budget = budget;
+        }
+
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            this.budget.addChars(len);
+            this.builder.append(cbuf, off, len);
+        }
+
+        public void write(int c) throws IOException {
+            this.budget.addChars(1);
+            this.builder.append((char) c);
+        }
+
+        public void write(String str, int off, int len) throws IOException {
+            this.budget.addChars(len);
+            this.builder.append(str, off, off + len);
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    }
+}
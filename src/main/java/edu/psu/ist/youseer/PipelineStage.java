@@ -0,0 +1,207 @@
+package edu.psu.ist.youseer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Title: PipelineStage</p>
+ *
+ * <p>Description: A stage of the processing of the documents (extract, serialize, submit or send), run by its own threads and
+ * fed through its own bounded queue. When the queue is full the previous stage blocks in execute(), so a slow stage
+ * holds back the ones before it instead of letting the documents pile up in memory.
+ * The stage measures the time its threads spend working, the time the previous stage spent blocked on it and the depth
+ * of its queue: a busy stage with a full queue needs more threads, an idle stage can give some up.
+ * A stage spending its time blocked on the network, the sending of the batches to the index, can instead start a thread
+ * per task, virtual threads on a JDK having them: the tasks in flight are then limited by a semaphore rather than by the
+ * size of a pool, and execute() blocks while all the permits are taken.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class PipelineStage {
+
+    private String name;
+
+    private int threads;
+
+    private ThreadPoolExecutor executor;
+
+    private BlockingQueue<Runnable> queue;
+
+    private long started = System.nanoTime();
+
+    private AtomicLong busyNanos = new AtomicLong();
+
+    private AtomicLong blockedNanos = new AtomicLong();
+
+    private AtomicLong processed = new AtomicLong();
+
+    /**
+     * The tasks in flight when a thread is started per task, null for a pool of threads
+     */
+    private Semaphore permits;
+
+    private ThreadFactory perTask;
+
+    private volatile boolean shutdown = false;
+
+    /**
+     *
+     * @param name String the name of the stage, used for its threads and in the report
+     * @param threads int the number of threads of the stage
+     * @param queueSize int the number of documents waiting for a thread of the stage
+     */
+    public PipelineStage(final String name, int threads, int queueSize) {
+        this.name = name;
+        this.threads = threads;
+        this.queue = new ArrayBlockingQueue<Runnable>(queueSize);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, this.queue,
+                                               new ThreadFactory() {
+            private AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "Pipeline-" + name + "-" + count.incrementAndGet());
+            }
+        });
+        this.executor.prestartAllCoreThreads(); // The tasks are put in the queue directly
+    }
+
+    /**
+     * A stage starting a thread per task
+     * @param name String the name of the stage, used in the report
+     * @param concurrency int the most tasks run at once
+     * @param perTask ThreadFactory the factory of the thread of each task, see VirtualThreads()
+     */
+    public PipelineStage(String name, int concurrency, ThreadFactory perTask) {
+        this.name = name;
+        this.threads = concurrency;
+        this.permits = new Semaphore(concurrency);
+        this.perTask = perTask;
+    }
+
+    /**
+     * Finds the factory of virtual threads through reflection, the code is compiled for older JDKs
+     * @param name String the prefix of the names of the threads
+     * @return ThreadFactory the factory, null if the JDK has no virtual threads
+     */
+    public static ThreadFactory VirtualThreads(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "Pipeline-" + name + "-", 1L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception ex) { // NoSuchMethodException before JDK 21, UnsupportedOperationException without preview
+            return null;
+        }
+    }
+
+    /**
+     * A factory of daemon platform threads, used in place of the virtual threads on an older JDK
+     * @param name String the prefix of the names of the threads
+     * @return ThreadFactory
+     */
+    public static ThreadFactory PlatformThreads(final String name) {
+        return new ThreadFactory() {
+            private AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Pipeline-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Hands a document to the stage, blocks while the queue of the stage is full
+     * @param task Runnable the work of the stage on the document
+     * @throws InterruptedException
+     */
+    public void execute(final Runnable task) throws InterruptedException {
+        if (this.shutdown || (this.executor != null && this.executor.isShutdown()))
+            throw new RejectedExecutionException("The " + this.name + " stage is shut down");
+        Runnable timed = new Runnable() {
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    busyNanos.addAndGet(System.nanoTime() - start);
+                    processed.incrementAndGet();
+                    if (permits != null)
+                        permits.release();
+                }
+            }
+        };
+        if (this.permits != null) {
+            if (!this.permits.tryAcquire()) {
+                long start = System.nanoTime();
+                this.permits.acquire();
+                this.blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+            try {
+                this.perTask.newThread(timed).start();
+            } catch (RuntimeException ex) {
+                this.permits.release();
+                throw ex;
+            }
+        } else if (!this.queue.offer(timed)) {
+            long start = System.nanoTime();
+            this.queue.put(timed);
+            this.blockedNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return double the share of the time of the threads of the stage spent working since it started, from 0 to 1
+     */
+    public double getUtilization() {
+        long elapsed = System.nanoTime() - this.started;
+        return elapsed <= 0 ? 0 : Math.min(1.0, this.busyNanos.get() / ((double) elapsed * this.threads));
+    }
+
+    /**
+     * @return String the utilization of the stage for the log
+     */
+    public String getStatus() {
+        String pending = this.permits != null ? "in flight " + (this.threads - this.permits.availablePermits()) :
+                         "queue " + this.queue.size();
+        return this.name + ": " + this.threads + (this.permits != null ? " permits, " : " threads, ") +
+               Math.round(this.getUtilization() * 100) + "% busy, " + this.processed.get() + " tasks, " + pending +
+               ", blocked " + TimeUnit.NANOSECONDS.toMillis(this.blockedNanos.get()) + " ms";
+    }
+
+    /**
+     * Stops the threads once the queued documents are processed
+     */
+    public void shutdown() {
+        this.shutdown = true;
+        if (this.executor != null)
+            this.executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (this.executor != null)
+            return this.executor.awaitTermination(timeout, unit);
+        // The tasks in flight are done once all the permits are back
+        if (!this.permits.tryAcquire(this.threads, timeout, unit))
+            return false;
+        this.permits.release(this.threads);
+        return true;
+    }
+}
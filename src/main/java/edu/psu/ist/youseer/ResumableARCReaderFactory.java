@@ -0,0 +1,74 @@
+package edu.psu.ist.youseer;
+
+import it.unimi.dsi.fastutil.io.RepositionableStream;
+import java.io.File;
+import java.io.IOException;
+import org.archive.io.arc.ARCReader;
+import org.archive.io.arc.ARCReaderFactory;
+
+/**
+ * <p>Title: ResumableARCReaderFactory</p>
+ *
+ * <p>Description: Opens ARC files whose iteration starts at a given record instead of the beginning of the file. The
+ * readers of Heritrix always rewind to the first record when an iterator is requested, the readers created here rewind to
+ * the requested offset instead, which must be the offset of a record (for compressed files, the start of its gzip
+ * member) as returned by ARCRecordMetaData.getOffset(). It's used to resume an ARC file from its last checkpoint.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class ResumableARCReaderFactory extends ARCReaderFactory {
+
+    private static final ResumableARCReaderFactory factory = new ResumableARCReaderFactory();
+
+    protected ResumableARCReaderFactory() {
+    }
+
+    /**
+     * @param arcFile File the ARC file, compressed or not
+     * @param offset long the offset of the first record to be iterated, 0 for the beginning of the file
+     * @return ARCReader
+     * @throws IOException
+     */
+    public static ARCReader get(File arcFile, long offset) throws IOException {
+        if (offset <= 0)
+            return ARCReaderFactory.get(arcFile);
+        if (ARCReaderFactory.testCompressedARCFile(arcFile))
+            return factory.new ResumedCompressedARCReader(arcFile, offset);
+        return factory.new ResumedUncompressedARCReader(arcFile, offset);
+    }
+
+    public class ResumedCompressedARCReader extends CompressedARCReader {
+
+        private long start;
+
+        public ResumedCompressedARCReader(File arcFile, long offset) throws IOException {
+            super(arcFile, offset);
+            this.start = offset;
+        }
+
+        protected void rewind() throws IOException {
+            this.cleanupCurrentRecord();
+            ((RepositionableStream) this.getIn()).position(this.start);
+        }
+    }
+
+    public class ResumedUncompressedARCReader extends UncompressedARCReader {
+
+        private long start;
+
+        public ResumedUncompressedARCReader(File arcFile, long offset) throws IOException {
+            super(arcFile, offset);
+            this.start = offset;
+        }
+
+        protected void rewind() throws IOException {
+            this.cleanupCurrentRecord();
+            ((RepositionableStream) this.getIn()).position(this.start);
+        }
+    }
+}
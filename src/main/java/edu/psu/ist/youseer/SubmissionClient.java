@@ -0,0 +1,166 @@
+package edu.psu.ist.youseer;
+
+import java.io.IOException;
+import java.net.URL;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+/**
+ * <p>Title: SubmissionClient</p>
+ *
+ * <p>Description: A single HTTP client shared by all the workers of an ARCSubmitter. It keeps a pool of keep-alive
+ * connections to the index, so the documents of an ARC file reuse the same sockets instead of opening a new one for every
+ * record. The number of connections per host follows the number of worker threads, the credentials found in the index URL
+ * are set once, and a background thread closes the connections that stay idle for too long.
+ * Connections that fail in the middle of a request are aborted rather than returned to the pool, so a broken socket is never
+ * reused and file descriptors are not leaked.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class SubmissionClient {
+
+    /**
+     * Connections that stay idle longer than this period are closed, in milliseconds
+     */
+    public static final long IDLE_TIMEOUT = 30 * 1000;
+    /**
+     * How often the idle connections are checked, in milliseconds
+     */
+    public static final long IDLE_CHECK_INTERVAL = 5 * 1000;
+
+    private MultiThreadedHttpConnectionManager connectionManager;
+
+    private HttpClient client;
+
+    private IdleConnectionTimeoutThread idleThread;
+
+    /**
+     *
+     * @param url URL the URL of the index, its user info (if any) is used as the credentials of every request
+     * @param threadsCount int the number of threads that will submit concurrently
+     */
+    public SubmissionClient(URL url, int threadsCount) {
+        this.connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = this.connectionManager.getParams();
+        // One connection for each worker, plus one for the commit commands sent by the submitter itself
+        params.setDefaultMaxConnectionsPerHost(threadsCount + 1);
+        params.setMaxTotalConnections(threadsCount + 1);
+        params.setStaleCheckingEnabled(true);
+        params.setTcpNoDelay(true);
+
+        this.client = new HttpClient(this.connectionManager);
+        if (url.getUserInfo() != null) {
+            String username = url.getUserInfo().split(":")[0];
+            String password = url.getUserInfo().split(":")[1];
+            UsernamePasswordCredentials creds = new UsernamePasswordCredentials(username, password);
+            HttpState state = new HttpState();
+            state.setCredentials(AuthScope.ANY, creds);
+            this.client.setState(state);
+            this.client.getParams().setAuthenticationPreemptive(true);
+        }
+
+        this.idleThread = new IdleConnectionTimeoutThread();
+        this.idleThread.setName("SubmissionClient-IdleConnections");
+        this.idleThread.setDaemon(true);
+        this.idleThread.setConnectionTimeout(IDLE_TIMEOUT);
+        this.idleThread.setTimeoutInterval(IDLE_CHECK_INTERVAL);
+        this.idleThread.addConnectionManager(this.connectionManager);
+        this.idleThread.start();
+    }
+
+    /**
+     * Sends a post request to the server using one of the pooled connections
+     * Courtesy of Grant Ingersoll @ IBM
+     * @param command String the command to be sent
+     * @param url URL the URL of the server
+     * @return String The result of the submit
+     * @throws Exception
+     */
+    public String sendPostCommand(String command, URL url) throws Exception {
+        return this.sendPostCommand(new StringRequestEntity(command, "text/xml", "UTF-8"), url);
+    }
+
+    /**
+     * Sends a post request with the given entity to the server using one of the pooled connections
+     * @param re RequestEntity the body of the request
+     * @param url URL the URL of the server
+     * @return String The result of the submit
+     * @throws Exception
+     */
+    public String sendPostCommand(RequestEntity re, URL url) throws Exception {
+        return this.execute(re, url, false);
+    }
+
+    /**
+     * Sends an update request to the server, unlike sendPostCommand a response status other than 200 is reported as an
+     * exception, so the caller knows that the documents in the request were rejected by the index
+     * @param re RequestEntity the body of the request
+     * @param url URL the URL of the server
+     * @return String The result of the submit
+     * @throws Exception
+     */
+    public String sendUpdateCommand(RequestEntity re, URL url) throws Exception {
+        return this.execute(re, url, true);
+    }
+
+    private String execute(RequestEntity re, URL url, boolean failOnError) throws Exception {
+        String results = null;
+        PostMethod post = new PostMethod(url.toString());
+        post.setRequestEntity(re);
+        boolean completed = false;
+        try {
+            // Execute the method.
+            int statusCode = this.client.executeMethod(post);
+
+            // Read the response body, this has to consume the whole body otherwise the connection can't be reused
+            byte[] responseBody = post.getResponseBody();
+
+            if (statusCode != HttpStatus.SC_OK) {
+                System.err.println("Method failed: " + post.getStatusLine());
+                if (failOnError) {
+                    completed = true; // The response was fully read, the connection can go back to the pool
+                    throw new HttpException("Method failed: " + post.getStatusLine());
+                }
+            }
+
+            // Deal with the response.
+            // Use caution: ensure correct character encoding and is not binary data
+            results = new String(responseBody);
+            completed = true;
+        } catch (HttpException e) {
+            throw e;
+        } catch (IOException e) {
+            throw e;
+        } finally {
+            if (!completed) {
+                // The state of the connection is unknown, close it instead of returning it to the pool
+                post.abort();
+            }
+            post.releaseConnection();
+        }
+        return results;
+    }
+
+    /**
+     * Closes all the pooled connections and stops the idle connection thread
+     */
+    public void shutdown() {
+        this.idleThread.shutdown();
+        this.connectionManager.shutdown();
+    }
+}
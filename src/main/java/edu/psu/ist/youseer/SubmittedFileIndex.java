@@ -0,0 +1,78 @@
+package edu.psu.ist.youseer;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * <p>Title: SubmittedFileIndex</p>
+ *
+ * <p>Description: In-memory copy of the SubmittedARCFiles table used while scanning the crawl folder. Only the 64 bit
+ * hashes of the paths are kept, in an open addressing set of longs, so the index costs 8 bytes per file rather than a
+ * String. A path whose hash isn't in the set was never submitted, which answers the new files without a database round
+ * trip; a path whose hash is in the set is most likely submitted, and the database tells for sure.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class SubmittedFileIndex {
+
+    /**
+     * The file is not in the SubmittedARCFiles table
+     */
+    public static final int NOT_SUBMITTED = 0;
+    /**
+     * The hash of the file is the hash of a submitted path, the database has to be checked
+     */
+    public static final int UNKNOWN = 1;
+
+    private LongOpenHashSet hashes = new LongOpenHashSet();
+
+    /**
+     * Loads all the submitted paths from the database
+     * @param pool DBConnectionPool the connections to the database
+     * @throws SQLException
+     */
+    public void Load(DBConnectionPool pool) throws SQLException {
+        DBConnectionPool.PooledConnection conn = pool.borrow();
+        try {
+            Statement stat = conn.getConnection().createStatement();
+            ResultSet rs = stat.executeQuery("select Path from SubmittedARCFiles;");
+            synchronized (this) {
+                while (rs.next())
+                    this.hashes.add(Fingerprint.Hash64(rs.getString(1)));
+            }
+            rs.close();
+            stat.close();
+            pool.release(conn);
+        } catch (SQLException ex) {
+            pool.discard(conn);
+            throw ex;
+        }
+    }
+
+    /**
+     * @param path String the absolute path of the ARC file
+     * @return int NOT_SUBMITTED, or UNKNOWN if the database has to be checked
+     */
+    public synchronized int Lookup(String path) {
+        return this.hashes.contains(Fingerprint.Hash64(path)) ? UNKNOWN : NOT_SUBMITTED;
+    }
+
+    /**
+     * Adds a path that has just been inserted to the SubmittedARCFiles table
+     * @param path String the absolute path of the ARC file
+     */
+    public synchronized void Add(String path) {
+        this.hashes.add(Fingerprint.Hash64(path));
+    }
+
+    public synchronized int size() {
+        return this.hashes.size();
+    }
+}
@@ -74,6 +74,172 @@ public class SubmitterConfig {
      * The database connection string, read from the XML configuration file
      */
     public String DBConnectionString ;
+    /**
+     * Maximum number of open database connections, 0 picks a default suited to the database provider
+     */
+    public int DBPoolSize = 0;
+    /**
+     * Number of rows the journal writes to the database in one batch
+     */
+    public int JournalBatchSize = 500;
+    /**
+     * Maximum time, in milliseconds, a row waits in the journal before it's written to the database
+     */
+    public long JournalFlushInterval = 2000;
+    /**
+     * Number of rows written in a single database transaction
+     */
+    public int CommitRows = 1000;
+    /**
+     * Whether the indexed pages and the submission errors are recorded in the compact schema, keyed by the 64 bit hash of
+     * the URL with the ARC files numbered, instead of the IndexedPages and SubmissionErrors tables
+     */
+    public boolean CompactSchema = false;
+    /**
+     * SQLite journal_mode pragma, WAL by default, "default" in the configuration file leaves the database default
+     */
+    public String SQLiteJournalMode = "WAL";
+    /**
+     * SQLite synchronous pragma, NORMAL by default, "default" in the configuration file leaves the database default
+     */
+    public String SQLiteSynchronous = "NORMAL";
+    /**
+     * SQLite cache_size pragma, in pages (or KiB when negative), 0 leaves the database default
+     */
+    public int SQLiteCacheSize = 0;
+    /**
+     * The opening tags of the solr fields, built once from the field names so they are not concatenated for every document
+     */
+    public String UrlTag, TitleTag, ContentTag, TypeTag, CacheTag, OffsetTag;
+    /**
+     * The optional solr fields receiving the description and keywords meta tags of the pages, null if they're not indexed
+     */
+    public String DESCRIPTION, KEYWORDS;
+    /**
+     * The optional solr field receiving the URL of the document a near duplicate points to, null if it's not indexed
+     */
+    public String CANONICAL;
+    /**
+     * The opening tags of the optional fields, null if they're not indexed
+     */
+    public String DescriptionTag, KeywordsTag, CanonicalTag;
+    /**
+     * Maximum number of documents sent to the index in a single add request
+     */
+    public int BatchSize = 100;
+    /**
+     * Maximum size, in bytes, of the documents sent to the index in a single add request
+     */
+    public long BatchBytes = 4 * 1024 * 1024;
+    /**
+     * Maximum time, in milliseconds, a document waits in a batch before the batch is sent to the index
+     */
+    public long BatchFlushInterval = 5000;
+    /**
+     * Maximum number of records read from the ARC files and not yet acknowledged, in all the stages of the pipeline
+     */
+    public int QueueRecords = 256;
+    /**
+     * Maximum number of bytes of record content read and not yet acknowledged, when set it replaces QueueRecords
+     */
+    public long QueueBytes = 0;
+    /**
+     * Number of ARC files read at the same time
+     */
+    public int ReaderThreads = 1;
+    /**
+     * Interval, in milliseconds, between two checkpoints of the ARC files being processed, 0 disables the checkpoints
+     */
+    public long CheckpointInterval = 60000;
+    /**
+     * Whether the folder of the ARC files is watched for new files between the periodic scans
+     */
+    public boolean WatchFolders = true;
+    /**
+     * Number of threads walking the folder of the ARC files, 0 for one per processor
+     */
+    public int ScanThreads = 0;
+    /**
+     * Whether the uncompressed ARC files are memory mapped, instead of copying the content of every record. Off by
+     * default until the mapped reader has the test coverage of the stream reader; set mapUncompressedFiles to true to opt in
+     */
+    public boolean MapUncompressedFiles = false;
+    /**
+     * The largest scratch buffer a thread keeps from one document to the next, in bytes or chars
+     */
+    public int MaxRetainedBuffer = 1024 * 1024;
+    /**
+     * The longest time the parsing of a binary record may take in milliseconds, 0 for no limit
+     */
+    public long ParseTimeout = 5 * 60 * 1000;
+    /**
+     * The most text the parsing of a binary record may produce in chars, 0 for no limit
+     */
+    public long MaxParsedChars = 16 * 1024 * 1024;
+    /**
+     * The size in bytes above which the content of a binary record is written to a temporary file and mapped, instead of
+     * being copied to the heap
+     */
+    public long SpillThreshold = 8 * 1024 * 1024;
+    /**
+     * The size in bytes above which a record is skipped, 0 for no limit
+     */
+    public long MaxRecordSize = 256 * 1024 * 1024;
+    /**
+     * The folder of the temporary files of the large records, null for the default temporary folder
+     */
+    public String SpillFolder = null;
+    /**
+     * What is done with the near duplicates of the documents already submitted: "off" doesn't look for them, "drop" doesn't
+     * submit them, "pointer" submits them without their text and with the URL of the document they duplicate, it needs
+     * the canonical field of the schema
+     */
+    public String NearDuplicates = "off";
+    /**
+     * The largest number of different bits between the SimHashes of two near duplicates, from 0 to 8: the index can't
+     * search wider distances with its banding
+     */
+    public int NearDuplicateDistance = 3;
+    /**
+     * The most submitted documents the near duplicates are looked for among, the oldest ones are forgotten first. A
+     * document takes about 80 bytes, plus its URL in the pointer mode
+     */
+    public int NearDuplicateCapacity = 1 << 20;
+    /**
+     * Whether the records whose content didn't change since their URL was indexed are skipped. Off by default, since
+     * such a record is then not sent to the index again, only the time its page was last seen is updated; set
+     * skipUnchanged to true to opt in
+     */
+    public boolean SkipUnchanged = false;
+    /**
+     * The number of threads of the decode stage, the pool of workers fed by the readers
+     */
+    public int DecodeThreads = 1;
+    /**
+     * The number of threads of the extract stage, 0 for the number of threads given on the command line
+     */
+    public int ExtractThreads = 0;
+    /**
+     * The number of threads of the serialize stage
+     */
+    public int SerializeThreads = 1;
+    /**
+     * The number of threads of the submit stage, each of them sends its batches to the index
+     */
+    public int SubmitThreads = 2;
+    /**
+     * The number of documents waiting in the queue of each of the extract, serialize and submit stages
+     */
+    public int StageQueueSize = 64;
+    /**
+     * "platform" to send the batches to the index from the pool of submit threads, "virtual" to send each batch from a
+     * thread of its own, a virtual thread on a JDK having them
+     */
+    public String IOThreads = "platform";
+    /**
+     * The most batches sent to the index at once when each batch is sent from a thread of its own
+     */
+    public int MaxConcurrentSubmissions = 64;
 
     public SubmitterConfig() {
     }
@@ -88,6 +254,7 @@ public class SubmitterConfig {
         this.TITLE = Title;
         this.URL = Url;
         this.OFFSET = offset;
+        this.BuildFieldTags();
 
     }
 
@@ -151,6 +318,9 @@ public class SubmitterConfig {
                 this.OFFSET = ((Node) fstNm.item(0)).getNodeValue();
 
             }
+            this.DESCRIPTION = ReadOptionalValue(doc, "schemaConfiguration", "Description");
+            this.KEYWORDS = ReadOptionalValue(doc, "schemaConfiguration", "Keywords");
+            this.CANONICAL = ReadOptionalValue(doc, "schemaConfiguration", "Canonical");
 
             Node dataTypesNode = indexedDataTypesNodeLst.item(0);
             if ( dataTypesNode.getNodeType() == Node.ELEMENT_NODE)
@@ -194,15 +364,151 @@ public class SubmitterConfig {
 
             }
 
+            String value = ReadOptionalValue(doc, "submissionConfiguration", "batchSize");
+            if (value != null)
+                this.BatchSize = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "submissionConfiguration", "batchBytes");
+            if (value != null)
+                this.BatchBytes = Long.parseLong(value);
+            value = ReadOptionalValue(doc, "submissionConfiguration", "batchFlushInterval");
+            if (value != null)
+                this.BatchFlushInterval = Long.parseLong(value);
+            value = ReadOptionalValue(doc, "databaseConfiguration", "poolSize");
+            if (value != null)
+                this.DBPoolSize = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "databaseConfiguration", "journalBatchSize");
+            if (value != null)
+                this.JournalBatchSize = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "databaseConfiguration", "journalFlushInterval");
+            if (value != null)
+                this.JournalFlushInterval = Long.parseLong(value);
+            value = ReadOptionalValue(doc, "databaseConfiguration", "commitRows");
+            if (value != null)
+                this.CommitRows = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "databaseConfiguration", "compactSchema");
+            if (value != null)
+                this.CompactSchema = Boolean.valueOf(value).booleanValue();
+            value = ReadOptionalValue(doc, "databaseConfiguration", "journalMode");
+            if (value != null)
+                this.SQLiteJournalMode = "default".equalsIgnoreCase(value) ? null : value;
+            value = ReadOptionalValue(doc, "databaseConfiguration", "synchronous");
+            if (value != null)
+                this.SQLiteSynchronous = "default".equalsIgnoreCase(value) ? null : value;
+            value = ReadOptionalValue(doc, "databaseConfiguration", "cacheSize");
+            if (value != null)
+                this.SQLiteCacheSize = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "queueRecords");
+            if (value != null)
+                this.QueueRecords = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "queueBytes");
+            if (value != null)
+                this.QueueBytes = Long.parseLong(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "readerThreads");
+            if (value != null)
+                this.ReaderThreads = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "checkpointInterval");
+            if (value != null)
+                this.CheckpointInterval = Long.parseLong(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "watchFolders");
+            if (value != null)
+                this.WatchFolders = Boolean.valueOf(value).booleanValue();
+            value = ReadOptionalValue(doc, "processingConfiguration", "scanThreads");
+            if (value != null)
+                this.ScanThreads = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "mapUncompressedFiles");
+            if (value != null)
+                this.MapUncompressedFiles = Boolean.valueOf(value).booleanValue();
+            value = ReadOptionalValue(doc, "processingConfiguration", "maxRetainedBuffer");
+            if (value != null)
+                this.MaxRetainedBuffer = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "parseTimeout");
+            if (value != null)
+                this.ParseTimeout = Long.parseLong(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "maxParsedChars");
+            if (value != null)
+                this.MaxParsedChars = Long.parseLong(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "spillThreshold");
+            if (value != null)
+                this.SpillThreshold = Long.parseLong(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "maxRecordSize");
+            if (value != null)
+                this.MaxRecordSize = Long.parseLong(value);
+            this.SpillFolder = ReadOptionalValue(doc, "processingConfiguration", "spillFolder");
+            value = ReadOptionalValue(doc, "processingConfiguration", "nearDuplicates");
+            if (value != null)
+                this.NearDuplicates = value.toLowerCase();
+            value = ReadOptionalValue(doc, "processingConfiguration", "nearDuplicateDistance");
+            if (value != null)
+                this.NearDuplicateDistance = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "nearDuplicateCapacity");
+            if (value != null)
+                this.NearDuplicateCapacity = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "skipUnchanged");
+            if (value != null)
+                this.SkipUnchanged = Boolean.valueOf(value).booleanValue();
+            value = ReadOptionalValue(doc, "processingConfiguration", "decodeThreads");
+            if (value != null)
+                this.DecodeThreads = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "extractThreads");
+            if (value != null)
+                this.ExtractThreads = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "serializeThreads");
+            if (value != null)
+                this.SerializeThreads = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "submitThreads");
+            if (value != null)
+                this.SubmitThreads = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "stageQueueSize");
+            if (value != null)
+                this.StageQueueSize = Integer.parseInt(value);
+            value = ReadOptionalValue(doc, "processingConfiguration", "ioThreads");
+            if (value != null)
+                this.IOThreads = value.trim().toLowerCase();
+            value = ReadOptionalValue(doc, "processingConfiguration", "maxConcurrentSubmissions");
+            if (value != null)
+                this.MaxConcurrentSubmissions = Integer.parseInt(value);
 
         } catch (Exception e) {
             System.err.println("Error in Reading Config file " + e.getMessage());
             return false;
         }
 
+        this.BuildFieldTags();
         return this.ValidateConfig();
     }
 
+    /**
+     * Builds the opening tags of the solr fields
+     */
+    public void BuildFieldTags() {
+        this.UrlTag = "<field name=\"" + this.URL + "\">";
+        this.TitleTag = "<field name=\"" + this.TITLE + "\">";
+        this.ContentTag = "<field name=\"" + this.DOCUMENT_TEXT + "\">";
+        this.TypeTag = "<field name=\"" + this.FILE_TYPE + "\">";
+        this.CacheTag = "<field name=\"" + this.CACHE + "\">";
+        this.OffsetTag = "<field name=\"" + this.OFFSET + "\">";
+        this.DescriptionTag = this.DESCRIPTION == null ? null : "<field name=\"" + this.DESCRIPTION + "\">";
+        this.KeywordsTag = this.KEYWORDS == null ? null : "<field name=\"" + this.KEYWORDS + "\">";
+        this.CanonicalTag = this.CANONICAL == null ? null : "<field name=\"" + this.CANONICAL + "\">";
+    }
+
+    /**
+     * Reads the value of an optional setting from the configuration file
+     * @param doc Document the parsed configuration file
+     * @param section String the name of the section that contains the setting
+     * @param tag String the name of the setting
+     * @return String the trimmed value of the setting, or null if the section or the setting is missing
+     */
+    private static String ReadOptionalValue(Document doc, String section, String tag) {
+        NodeList sectionLst = doc.getElementsByTagName(section);
+        if (sectionLst.getLength() == 0)
+            return null;
+        NodeList valueLst = ((Element) sectionLst.item(0)).getElementsByTagName(tag);
+        if (valueLst.getLength() == 0 || valueLst.item(0).getFirstChild() == null)
+            return null;
+        return valueLst.item(0).getFirstChild().getNodeValue().trim();
+    }
+
     /**
      * Validates this object after populating it from the XML configuration file.
      * 
@@ -211,7 +517,19 @@ public class SubmitterConfig {
     private boolean ValidateConfig()
     {
         return this.CACHE.length() > 0 && this.DOCUMENT_TEXT.length() >0 && this.FILE_TYPE.length()>0 && this.IndexedTypes.size()>0
-                && this.TITLE.length() > 0 && this.URL.length() > 0;
+                && this.TITLE.length() > 0 && this.URL.length() > 0
+                && this.BatchSize > 0 && this.BatchBytes > 0 && this.BatchFlushInterval > 0
+                && this.QueueRecords > 0 && this.QueueBytes >= 0 && this.ReaderThreads > 0 && this.CheckpointInterval >= 0 && this.ScanThreads >= 0 && this.MaxRetainedBuffer > 0
+                && this.ParseTimeout >= 0 && this.MaxParsedChars >= 0 && this.SpillThreshold > 0 && this.MaxRecordSize >= 0
+                && (this.NearDuplicates.equals("off") || this.NearDuplicates.equals("drop") || this.NearDuplicates.equals("pointer"))
+                && !(this.NearDuplicates.equals("pointer") && this.CANONICAL == null) // Else a blank document is indexed
+                && this.NearDuplicateDistance >= 0 && this.NearDuplicateDistance <= NearDuplicateIndex.MAX_DISTANCE
+                && this.NearDuplicateCapacity > 0
+                && this.DecodeThreads > 0 && this.ExtractThreads >= 0 && this.SerializeThreads > 0 && this.SubmitThreads > 0
+                && this.StageQueueSize > 0 && this.MaxConcurrentSubmissions > 0
+                && (this.IOThreads.equals("platform") || this.IOThreads.equals("virtual"))
+                && this.DBPoolSize >= 0 && this.JournalBatchSize > 0 && this.JournalFlushInterval > 0
+                && this.CommitRows > 0;
     }
 
 
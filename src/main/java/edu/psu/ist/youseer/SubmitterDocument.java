@@ -12,12 +12,24 @@
  */
 package edu.psu.ist.youseer;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
 public class SubmitterDocument {
 
     /**
      *  The binary content of any not text document
      */
     private byte[] ByteContent;
+    /**
+     * The content of a record read from a mapped ARC file, a read only slice of the mapping
+     */
+    private ByteBuffer BufferContent;
+    /**
+     * The Content-Type header of the HTTP response, it gives the charset of the text documents
+     */
+    private String ContentType;
     /**
      *  The title of the document
      */
@@ -35,9 +47,45 @@ public class SubmitterDocument {
      */
     private String RawTextContent;
     /**
-     * The file content after stripping the HTML tags
+     * The content of the description meta tag of a page
+     */
+    private String Description;
+    /**
+     * The content of the keywords meta tag of a page
+     */
+    private String Keywords;
+    /**
+     * The URL of the document this one is a near duplicate of, when it's submitted as a pointer to it
+     */
+    private String CanonicalUrl;
+    /**
+     * The 64 bit hash of the content of the record as read from the ARC file, 0 if it wasn't computed
+     */
+    private long ContentHash;
+    /**
+     * The doc element of the document in UTF-8, written by the serialize stage, null until then
+     */
+    private byte[] SerializedContent;
+    /**
+     * The file content after stripping the HTML tags, it's escaped when the document is sent to the index
      */
     private String StrippedTextContent;
+    /**
+     * The application specific fields generated by the Extractor, already in XML format
+     */
+    private String CustomData;
+    /**
+     * The tracker of the ARC file this document was read from, notified when the document is acknowledged
+     */
+    private ARCFileTracker Tracker;
+    /**
+     * The bytes of the pool of workers held by this document until it's acknowledged, -1 once they are released
+     */
+    private long ReservedSize = -1;
+    /**
+     * The entry of the document in the near duplicate index, -1 if it wasn't added, removed if it's not submitted
+     */
+    private long NearDuplicateEntry = -1;
     /**
      * offset within the ARC file
      */
@@ -74,6 +122,14 @@ public class SubmitterDocument {
         this.ContainingFile = containingFile;
     }
 
+    public SubmitterDocument(String Url, ByteBuffer buffer, String dataType, String containingFile, int recordOffset) {
+        this.Url = Url;
+        this.BufferContent = buffer;
+        this.DataType = dataType;
+        this.Offset = recordOffset;
+        this.ContainingFile = containingFile;
+    }
+
     public String getRawTextContent() {
         return RawTextContent;
     }
@@ -90,6 +146,46 @@ public class SubmitterDocument {
         return Title;
     }
 
+    public String getDescription() {
+        return Description;
+    }
+
+    public void setDescription(String description) {
+        this.Description = description;
+    }
+
+    public String getKeywords() {
+        return Keywords;
+    }
+
+    public void setKeywords(String keywords) {
+        this.Keywords = keywords;
+    }
+
+    public byte[] getSerializedContent() {
+        return SerializedContent;
+    }
+
+    public void setSerializedContent(byte[] serializedContent) {
+        this.SerializedContent = serializedContent;
+    }
+
+    public long getContentHash() {
+        return ContentHash;
+    }
+
+    public void setContentHash(long contentHash) {
+        this.ContentHash = contentHash;
+    }
+
+    public String getCanonicalUrl() {
+        return CanonicalUrl;
+    }
+
+    public void setCanonicalUrl(String canonicalUrl) {
+        this.CanonicalUrl = canonicalUrl;
+    }
+
     public void setDataType(String DataType) {
         this.DataType = DataType;
     }
@@ -121,6 +217,79 @@ public class SubmitterDocument {
     this.ByteContent = buffer;
 }
 
+    public String getContentType() {
+        return ContentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.ContentType = contentType;
+    }
+
+    public ByteBuffer getBufferContent() {
+        return BufferContent;
+    }
+
+    public void setBufferContent(ByteBuffer buffer) {
+        this.BufferContent = buffer;
+    }
+
+    /**
+     * @return InputStream the content of the document, whichever way it was read, null if there is none
+     */
+    public InputStream openContentStream() {
+        if (this.BufferContent != null)
+            return new ByteBufferInputStream(this.BufferContent);
+        if (this.ByteContent != null)
+            return new ByteArrayInputStream(this.ByteContent);
+        return null;
+    }
+
+
+    public String getCustomData() {
+        return CustomData;
+    }
+
+    public void setCustomData(String customData) {
+        this.CustomData = customData;
+    }
+
+    /**
+     * @return long the approximate size in bytes of the content held by this document
+     */
+    public long getContentSize() {
+        long size = 0;
+        if (this.ByteContent != null)
+            size += this.ByteContent.length;
+        if (this.BufferContent != null)
+            size += this.BufferContent.remaining();
+        if (this.RawTextContent != null)
+            size += 2L * this.RawTextContent.length();
+        return size;
+    }
+
+    public long getNearDuplicateEntry() {
+        return NearDuplicateEntry;
+    }
+
+    public void setNearDuplicateEntry(long nearDuplicateEntry) {
+        this.NearDuplicateEntry = nearDuplicateEntry;
+    }
+
+    public long getReservedSize() {
+        return ReservedSize;
+    }
+
+    public void setReservedSize(long reservedSize) {
+        this.ReservedSize = reservedSize;
+    }
+
+    public ARCFileTracker getTracker() {
+        return Tracker;
+    }
+
+    public void setTracker(ARCFileTracker tracker) {
+        this.Tracker = tracker;
+    }
 
     public int getOffset() {
         return Offset;
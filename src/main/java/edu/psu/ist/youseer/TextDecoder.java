@@ -0,0 +1,151 @@
+package edu.psu.ist.youseer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Title: TextDecoder</p>
+ *
+ * <p>Description: Decodes the content of the text records in the charset they were served with. The charset is taken from
+ * the Content-Type header of the HTTP response, or from a meta tag at the beginning of the page, and the platform default
+ * charset is used when none of them gives it.
+ * The whole content is decoded at once, so a multibyte character is never split between two chunks. Every thread has its
+ * own decoder, keeping a CharsetDecoder per charset, and the byte and char buffers come from the BufferArena of the thread,
+ * so decoding a record allocates only the resulting String.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class TextDecoder {
+
+    /**
+     * The number of bytes at the beginning of a page searched for a meta tag giving the charset
+     */
+    private static final int SNIFF_LENGTH = 1024;
+
+    private static final Pattern CHARSET_PARAMETER =
+            Pattern.compile("charset\\s*=\\s*[\"']?([\\w.:-]+)", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern META_CHARSET =
+            Pattern.compile("<meta[^>]+charset\\s*=\\s*[\"']?([\\w.:-]+)", Pattern.CASE_INSENSITIVE);
+
+    private static final ThreadLocal<TextDecoder> decoders = new ThreadLocal<TextDecoder>() {
+        protected TextDecoder initialValue() {
+            return new TextDecoder();
+        }
+    };
+
+    private Map<String, CharsetDecoder> charsetDecoders = new HashMap<String, CharsetDecoder>();
+
+    private TextDecoder() {
+    }
+
+    /**
+     * @return TextDecoder the decoder of the current thread
+     */
+    public static TextDecoder get() {
+        return decoders.get();
+    }
+
+    /**
+     * Reads and decodes a text content
+     * @param in InputStream the content, positioned after the HTTP headers
+     * @param length long the expected length of the content, used to size the buffers, 0 if it's unknown
+     * @param contentType String the Content-Type header of the response, null if there is none
+     * @return String the decoded text
+     * @throws IOException
+     */
+    public String Decode(InputStream in, long length, String contentType) throws IOException {
+        BufferArena arena = BufferArena.get();
+        byte[] buffer = arena.getBytes((int) Math.max(0, Math.min(length, Integer.MAX_VALUE - 8)));
+        int total = 0;
+        int read;
+        while (true) {
+            if (total == buffer.length) {
+                // Usually the length was exact and the content is over, the buffer only grows if it wasn't
+                int next = in.read();
+                if (next == -1)
+                    break;
+                buffer = arena.growBytes(total);
+                buffer[total++] = (byte) next;
+            }
+            read = in.read(buffer, total, buffer.length - total);
+            if (read == -1)
+                break;
+            total += read;
+        }
+        return this.Decode(ByteBuffer.wrap(buffer, 0, total), contentType);
+    }
+
+    /**
+     * Decodes a text content held in a buffer, a slice of a mapped ARC file for instance
+     * @param body ByteBuffer the content after the HTTP headers, it's not modified
+     * @param contentType String the Content-Type header of the response, null if there is none
+     * @return String the decoded text
+     */
+    public String Decode(ByteBuffer body, String contentType) {
+        ByteBuffer in = body.duplicate();
+        CharsetDecoder decoder = this.decoder(this.detect(in, contentType));
+        int capacity = (int) Math.min(Integer.MAX_VALUE, (long) (in.remaining() * (double) decoder.maxCharsPerByte()) + 1);
+        CharBuffer out = BufferArena.get().getCharBuffer(capacity);
+        decoder.reset();
+        decoder.decode(in, out, true);
+        decoder.flush(out);
+        return new String(out.array(), 0, out.position());
+    }
+
+    /**
+     * Finds the charset of the content, from the HTTP header first and then from a meta tag
+     * @return String the name of the charset, null if it's not given
+     */
+    private String detect(ByteBuffer body, String contentType) {
+        if (contentType != null) {
+            Matcher m = CHARSET_PARAMETER.matcher(contentType);
+            if (m.find())
+                return m.group(1);
+        }
+        int length = Math.min(SNIFF_LENGTH, body.remaining());
+        char[] head = new char[length];
+        for (int i = 0; i < length; i++)
+            head[i] = (char) (body.get(body.position() + i) & 0xff);
+        Matcher m = META_CHARSET.matcher(new String(head));
+        if (m.find())
+            return m.group(1);
+        return null;
+    }
+
+    /**
+     * @param name String the name of the charset, null for the default charset
+     * @return CharsetDecoder the decoder of this thread for the charset, the default one if the charset isn't supported
+     */
+    private CharsetDecoder decoder(String name) {
+        String key = name == null ? "" : name.toLowerCase();
+        CharsetDecoder decoder = this.charsetDecoders.get(key);
+        if (decoder == null) {
+            Charset charset = Charset.defaultCharset();
+            try {
+                if (name != null)
+                    charset = Charset.forName(name);
+            } catch (Exception ex) {
+                // Unknown or malformed charset name, the page is decoded with the default charset
+            }
+            decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                             .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.charsetDecoders.put(key, decoder);
+        }
+        return decoder;
+    }
+}
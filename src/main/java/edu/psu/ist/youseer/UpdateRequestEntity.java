@@ -0,0 +1,163 @@
+package edu.psu.ist.youseer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * <p>Title: UpdateRequestEntity</p>
+ *
+ * <p>Description: The body of an add request sent to the index. Instead of building the whole request as a String, the
+ * documents are written field by field straight to the HTTP output stream: the text is escaped while it is written and
+ * encoded to UTF-8 through a small buffer, so the only full copy of a document on the heap is its stripped text.
+ * The opening field tags come from the configuration object, where they are built once.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class UpdateRequestEntity implements RequestEntity {
+
+    private static final String FIELD_END = "</field>" + ARCSubmitter.LINE_SEP;
+
+    private ARCSubmitter parent;
+
+    private List<SubmitterDocument> docs;
+
+    /**
+     *
+     * @param parent ARCSubmitter the submitter, used for the configuration and the cache folder
+     * @param docs List the processed documents to be added to the index
+     */
+    public UpdateRequestEntity(ARCSubmitter parent, List<SubmitterDocument> docs) {
+        this.parent = parent;
+        this.docs = docs;
+    }
+
+    public boolean isRepeatable() {
+        return true; // The documents are kept until the request is acknowledged, so it can be written again
+    }
+
+    public void writeRequest(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 8192);
+        writer.write("<add>");
+        writer.write(ARCSubmitter.LINE_SEP);
+        for (int i = 0; i < this.docs.size(); i++) {
+            SubmitterDocument doc = this.docs.get(i);
+            if (doc.getSerializedContent() != null) { // Serialized by the serialize stage
+                writer.flush();
+                out.write(doc.getSerializedContent());
+            } else
+                WriteDocument(writer, doc, this.parent);
+        }
+        writer.write("</add>");
+        writer.write(ARCSubmitter.LINE_SEP);
+        writer.flush(); // Don't close the writer, the connection belongs to the pool
+    }
+
+    public long getContentLength() {
+        return -1; // Sent chunked, the length isn't known before the documents are written
+    }
+
+    public String getContentType() {
+        return "text/xml; charset=UTF-8";
+    }
+
+    /**
+     * Writes the doc element of a processed document
+     * @param writer Writer the destination
+     * @param doc SubmitterDocument the processed document
+     * @param parent ARCSubmitter the submitter, used for the configuration and the cache folder
+     * @throws IOException
+     */
+    public static void WriteDocument(Writer writer, SubmitterDocument doc, ARCSubmitter parent) throws IOException {
+        SubmitterConfig config = parent.Config;
+        writer.write("<doc>");
+        WriteField(writer, config.UrlTag, doc.getUrl());
+
+        String relativePath = parent.CacheFolder + doc.getContainingFile().substring(parent.OriginalPart.length());
+        WriteField(writer, config.CacheTag, relativePath);
+        WriteField(writer, config.OffsetTag, Integer.toString(doc.getOffset()));
+        WriteField(writer, config.ContentTag, doc.getStrippedTextContent());
+        WriteField(writer, config.TypeTag, doc.getDataType());
+
+        if (doc.getTitle() != null)
+            WriteField(writer, config.TitleTag, doc.getTitle());
+        if (config.DescriptionTag != null && doc.getDescription() != null)
+            WriteField(writer, config.DescriptionTag, doc.getDescription());
+        if (config.KeywordsTag != null && doc.getKeywords() != null)
+            WriteField(writer, config.KeywordsTag, doc.getKeywords());
+        if (config.CanonicalTag != null && doc.getCanonicalUrl() != null)
+            WriteField(writer, config.CanonicalTag, doc.getCanonicalUrl());
+
+        if (doc.getCustomData() != null && doc.getCustomData().length() > 0)
+            writer.write(doc.getCustomData());
+
+        writer.write("</doc>");
+        writer.write(ARCSubmitter.LINE_SEP);
+    }
+
+    private static void WriteField(Writer writer, String tag, String value) throws IOException {
+        writer.write(tag);
+        if (value != null)
+            WriteEscaped(writer, value);
+        writer.write(FIELD_END);
+    }
+
+    /**
+     * Writes the text escaping the XML special characters. Characters that are not allowed in XML documents are dropped,
+     * otherwise the index would reject the whole request: the control characters, U+FFFE, U+FFFF and the surrogates that
+     * aren't part of a pair
+     * @param writer Writer the destination
+     * @param text String the text to be written
+     * @throws IOException
+     */
+    public static void WriteEscaped(Writer writer, String text) throws IOException {
+        int start = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            String replacement;
+            switch (c) {
+            case '<':
+                replacement = "&lt;";
+                break;
+            case '>':
+                replacement = "&gt;";
+                break;
+            case '&':
+                replacement = "&amp;";
+                break;
+            case '"':
+                replacement = "&quot;";
+                break;
+            case '\'':
+                replacement = "&apos;";
+                break;
+            default:
+                if (c >= 0x20 && c < Character.MIN_SURROGATE || c == '\t' || c == '\n' || c == '\r')
+                    continue;
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    i++; // A surrogate pair, a character outside the basic plane
+                    continue;
+                }
+                if (c > Character.MAX_SURROGATE && c < 0xFFFE)
+                    continue;
+                replacement = ""; // A control character, an unpaired surrogate, U+FFFE or U+FFFF
+            }
+            if (i > start)
+                writer.write(text, start, i - start);
+            writer.write(replacement);
+            start = i + 1;
+        }
+        if (length > start)
+            writer.write(text, start, length - start);
+    }
+}
@@ -1,42 +1,22 @@
 package edu.psu.ist.youseer;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
-import java.io.Reader;
-import java.io.StringReader;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URL;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.Statement;
-import java.sql.Timestamp;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import net.htmlparser.jericho.CharacterReference;
-import net.htmlparser.jericho.MasonTagTypes;
-import net.htmlparser.jericho.MicrosoftTagTypes;
-import net.htmlparser.jericho.PHPTagTypes;
-import net.htmlparser.jericho.Source;
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.HttpState;
-import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
-import org.apache.commons.httpclient.auth.AuthScope;
-import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.methods.RequestEntity;
-import org.apache.commons.httpclient.methods.StringRequestEntity;
-import org.apache.commons.lang.StringEscapeUtils;
-import org.apache.solr.analysis.HTMLStripReader;
-import org.apache.tika.parser.AutoDetectParser;
-import org.apache.tika.parser.Parser;
-import org.apache.tika.parser.ParsingReader;
+import org.apache.tika.metadata.Metadata;
 /**
  * <p>Title: </p>
  *
  * <p>Description: This is the basic unit of execution, each worker is responsible for parsing a document and generating
  * the corresponding solr document. During the processing, the SubmitterDocument is passed to the CustomeExtractor to
- * see if the user has implemented some specific extraction functions.</p>
+ * see if the user has implemented some specific extraction functions.
+ * The work on a document is split in stages run by separate pools of threads: decode (run() on the pool of workers),
+ * extract (parsing, near duplicates and custom data), serialize (the solr document in UTF-8) and submit (the batches
+ * sent to the index). Each stage hands the document to the next one, so the CPU bound stages and the network bound one
+ * are sized separately.</p>
  *
  * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
  *
@@ -56,12 +36,33 @@ public class Worker implements Runnable{
         this.doc = doc;
     }
 
+    /**
+     * The decode stage, run by the pool of workers: the text read from a mapped ARC file is decoded, and the document is
+     * handed to the extract stage
+     */
     public void run()
     {
         try {
-            String content = "";
+            this.DecodeDocument();
+            this.parent.Extractors.execute(new Runnable() {
+                public void run() {
+                    Worker.this.Extract();
+                }
+            });
+        } catch (Throwable ex) { // An Error too, it would leave the record unacknowledged
+            this.Failed(ex);
+        } finally {
+            BufferArena.get().reset(); // Ready for the next document of this worker
+        }
 
+    }
 
+    /**
+     * The extract stage: the text, the title and the custom data of the document are extracted, and the document is
+     * handed to the serialize stage unless it's a near duplicate that is dropped
+     */
+    public void Extract() {
+        try {
             if (this.doc.getDataType().startsWith("text")) {
 
                 this.ProcessTextDocument();
@@ -69,26 +70,113 @@ public class Worker implements Runnable{
 
                 this.ProcessBinaryDocument();
             }
+            if (this.parent.Duplicates != null && this.IsNearDuplicate())
+                return; // Dropped, the finally block still resets the buffers
+
+            this.doc.setCustomData(Extractor.GenerateCustomeData(this.doc));
+            // The raw content is no longer needed, only the stripped text is written to the index
+            this.doc.setRawTextContent(null);
+            this.doc.setByteContent(null);
+            this.doc.setBufferContent(null);
+            this.parent.Serializers.execute(new Runnable() {
+                public void run() {
+                    Worker.this.Serialize();
+                }
+            });
+
+        } catch (ParseBudgetException ex) {
+            Logger.getLogger(Worker.class.getName()).log(Level.WARNING, "Gave up parsing the URL:" + this.doc.getUrl() +
+                    " " + ex.getMessage());
+            this.parent.InsertErrorToDB(this.doc, ex.getReason(), ex.getMessage());
+            this.parent.Acknowledge(this.doc);
+        } catch (Throwable ex) { // StackOverflowError, OutOfMemoryError or NoClassDefFoundError of a parser
+            this.Failed(ex);
+        } finally {
+            BufferArena.get().reset();
+            BufferArena.countDocument(); // Read, decoded and extracted
+        }
+    }
 
-            //System.err.println("Submitting File: " +
-            //                   this.doc.getContainingFile() + ": " + this.doc.getUrl());
-            //System.out.println("Submitting File: " +
-             //                  this.doc.getContainingFile() + ": " + this.doc.getUrl());
-            String toSend = this.GenerateDocument();
-            String result = this.sendPostCommand(toSend,
-                    this.parent.Config.IndexURL);
-            //System.out.println("The document is: " + toSend);
+    /**
+     * The serialize stage: the solr document is written in UTF-8 once, and the document is handed to the submit stage
+     */
+    public void Serialize() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                    this.doc.getStrippedTextContent() == null ? 1024 : this.doc.getStrippedTextContent().length() + 1024);
+            Writer writer = new OutputStreamWriter(bytes, "UTF-8");
+            UpdateRequestEntity.WriteDocument(writer, this.doc, this.parent);
+            writer.flush();
+            this.doc.setSerializedContent(bytes.toByteArray());
+            this.doc.setStrippedTextContent(null); // Only the serialized document is sent
+            this.parent.Submitters.execute(new Runnable() {
+                public void run() {
+                    Worker.this.Submit();
+                }
+            });
+        } catch (Throwable ex) {
+            this.Failed(ex);
+        }
+    }
 
-            //this.parent.IncrementCount();
-            this.parent.IndexedDocs.add(this.doc);
-            // Insert the result to the DB
-            //this.InsertToDB("0");
+    /**
+     * The submit stage: the document is added to the current batch, the batch is sent to the index when it's full, by this
+     * thread or by the send stage. The batch submitter records the document in IndexedPages or SubmissionErrors
+     */
+    public void Submit() {
+        try {
+            this.parent.Batcher.add(this.doc);
+        } catch (Throwable ex) {
+            this.Failed(ex);
+        }
+    }
 
-        } catch (Exception ex) {
-            Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, "Exception encountered while processin the URL:" + this.doc.getUrl(), ex);            
-            this.InsertToDB(ex.getMessage());
+    /**
+     * Decodes the text read from a mapped ARC file, in the charset it was served with
+     */
+    public void DecodeDocument() {
+        if (this.doc.getDataType().startsWith("text") && this.doc.getRawTextContent() == null &&
+            this.doc.getBufferContent() != null) {
+            this.doc.setRawTextContent(TextDecoder.get().Decode(this.doc.getBufferContent(), this.doc.getContentType()));
+            this.doc.setBufferContent(null);
         }
+    }
+
+    /**
+     * Logs the failure of a stage on the document, the document isn't submitted
+     * @param ex Throwable the cause of the failure, an Error of a parser included
+     */
+    private void Failed(Throwable ex) {
+        Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, "Exception encountered while processin the URL:" + this.doc.getUrl(), ex);
+        this.InsertToDB(ex.getMessage());
+        if (this.parent.Duplicates != null) // Its copies are no longer near duplicates
+            this.parent.Duplicates.Remove(this.doc.getNearDuplicateEntry());
+        this.parent.Acknowledge(this.doc);
+    }
 
+    /**
+     * Looks for a near duplicate of the document among the submitted documents. A near duplicate is logged to the database,
+     * and either dropped or kept with only the URL of the document it duplicates, depending on the configuration
+     * @return boolean true if the document is dropped
+     */
+    private boolean IsNearDuplicate() {
+        if (this.doc.getStrippedTextContent() == null)
+            return false;
+        long simHash = NearDuplicateIndex.SimHash(this.doc.getStrippedTextContent());
+        if (simHash == 0) // Too short to be compared
+            return false;
+        // A new document is added, and removed if it isn't submitted
+        NearDuplicateIndex.Canonical canonical = this.parent.Duplicates.CheckAndAdd(simHash, this.doc);
+        if (canonical == null)
+            return false;
+        this.parent.Journal.NearDuplicate(this.doc, canonical);
+        if (this.parent.Config.NearDuplicates.equals("pointer")) {
+            this.doc.setCanonicalUrl(canonical.Url);
+            this.doc.setStrippedTextContent("");
+            return false;
+        }
+        this.parent.Acknowledge(this.doc);
+        return true;
     }
 
     /**
@@ -98,92 +186,41 @@ public class Worker implements Runnable{
      */
     private boolean InsertToDB(String result)
 {
-    try {
-        Class.forName(this.parent.Config.DatabaseProvider);
-        Connection myConn = DriverManager.getConnection(
-                this.parent.Config.DBConnectionString);
-        Statement stat = myConn.createStatement();
-        PreparedStatement prep = myConn.prepareStatement(
-                "insert into SubmissionErrors (Url, IndexingTime ,FileType , ContainingFile ,RecordOffset , ErrorMessage) values (?, ?, ?, ?, ?, ?);");
-
-        java.util.Date fromDate = new java.util.Date();
-        prep.setString(1, this.doc.getUrl());
-        prep.setTimestamp(2, new Timestamp(fromDate.getTime()));
-        prep.setString(3, this.doc.getDataType());
-        prep.setString(4, this.doc.getContainingFile());
-        prep.setInt(5, this.doc.getOffset());
-        prep.setString(6, result);
-        prep.addBatch();
-        prep.executeBatch();
-        return true;
-
-
-    } catch (Exception ex) {
-        Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, null, ex);
-        return false;
-    }
+    return this.parent.InsertErrorToDB(this.doc, result);
 }
 
 /**
- * Processes the text document, extracts the title, and strip the HTML tags
+ * Processes the text document, strips the HTML tags and extracts the title and the meta description and keywords, in a
+ * single pass over the page
  * @return boolean
  */
 public boolean ProcessTextDocument() {
+       this.DecodeDocument(); // Already done by the decode stage, unless this is called directly
        // The content should be in plain HTML, prefered not to be stripped
-       String withoutHTML = this.StripHTML(doc.getRawTextContent());
-       withoutHTML = StringEscapeUtils.escapeXml(withoutHTML);
-       doc.setStrippedTextContent(withoutHTML);
-       String title = ""; //doc.TitleProperty;
-
-       MicrosoftTagTypes.register();
-       PHPTagTypes.register();
-       PHPTagTypes.PHP_SHORT.deregister(); // remove PHP short tags for this example otherwise they override processing instructions
-       MasonTagTypes.register();
-       Source source = new Source(doc.getRawTextContent());
-       source.fullSequentialParse();
-
-       title = getTitle(source);
-
-       if (title != null) {
-
-           title = StringEscapeUtils.escapeXml(title);
-           doc.setTitle(title);
-
-       }
+       HTMLTextExtractor.Extract(doc.getRawTextContent(), doc);
 
        return true;
    }
 
    /**
-    * Process the binary document, converts it to plain text using apache tika, and then extracts the title of the file
+    * Process the binary document, converts it to plain text using apache tika, and then extracts the title of the file.
+    * The document is parsed on the worker thread by the parser registered for its type
     * @return boolean
+    * @throws ParseBudgetException if the parsing ran over its budget, the document isn't submitted
     */
-   public boolean ProcessBinaryDocument() {
-       // The content should be in plain HTML, prefered not to be stripped
+   public boolean ProcessBinaryDocument() throws ParseBudgetException {
        try{
-           InputStream is = new ByteArrayInputStream(doc.getByteContent());
-           Parser prsr = new AutoDetectParser();
-           org.apache.tika.metadata.Metadata md = new org.apache.tika.metadata.
-                   Metadata();
-           Reader reader = new ParsingReader(prsr, is, md);
-           doc.setTitle(md.get(md.TITLE));
-           int read = 0;
-           StringBuilder sb = new StringBuilder();
-           do {
-
-               char[] charArr = new char[4096];
-
-               read = reader.read(charArr, 0, 4096);
-
-               sb.append(charArr, 0, read == -1 ? 0 : read);
-
-           } while (read != -1);
-           reader.close();
-           is.close();
-           doc.setStrippedTextContent(StringEscapeUtils.escapeXml(sb.toString()));
+           StringBuilder sb = BufferArena.get().getBuilder(0);
+           Metadata md = this.parent.Parsers.Parse(doc, sb);
+           doc.setTitle(md.get(Metadata.TITLE));
+           doc.setStrippedTextContent(sb.toString());
 
            return true;
        }
+       catch (ParseBudgetException ex)
+       {
+            throw ex;
+       }
        catch (Exception ex)
        {
             Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, "Exception encountered while processing binary document", ex);
@@ -194,85 +231,8 @@ public boolean ProcessTextDocument() {
 
    }
 
-   /**
-    * Generates solr document for the processed ARC record using the tags from the configuration file
-    * @param doc SubmitterDocument
-    * @return String
-    */
-
-  public String GenerateDocument() {
-
-      StringBuilder command = new StringBuilder();
-      command.append("<add>").append(ARCSubmitter.LINE_SEP).append("<doc>")
-              .append("<field name=\""+ this.parent.Config.URL +"\">").append(doc.getUrl()).append("</field>").
-              append(ARCSubmitter.LINE_SEP);
-
-      String relativePath = this.parent.CacheFolder + doc.getContainingFile().substring(this.parent.OriginalPart.length());
-      command.append("<field name=\""+ this.parent.Config.CACHE +"\">").append(relativePath).append(
-              "</field>").append(ARCSubmitter.LINE_SEP);
-
-      command.append("<field name=\"" + this.parent.Config.OFFSET +
-                     "\">").append(doc.getOffset()).append("</field>").
-              append(ARCSubmitter.LINE_SEP);
-
-      command.append("<field name=\"" + this.parent.Config.DOCUMENT_TEXT +
-                     "\">").append(doc.getStrippedTextContent()).
-              append("</field>").append(ARCSubmitter.LINE_SEP);
-
-      command.append("<field name=\"" + this.parent.Config.FILE_TYPE + "\">").
-              append(doc.getDataType()).append("</field>").append(ARCSubmitter.
-              LINE_SEP);
-
-      if (doc.getTitle() != null) {
-
-          command.append("<field name=\"" + this.parent.Config.TITLE +
-                         "\">").append(doc.getTitle()).append(
-                                 "</field>").append(ARCSubmitter.LINE_SEP);
-
-      }
-
-      String customData = Extractor.GenerateCustomeData(doc);
-      if (customData != "")
-          command.append(customData);
-
-      command.append("</doc>").append(ARCSubmitter.LINE_SEP);
-      command.append("</add>").append(ARCSubmitter.LINE_SEP);
-      return command.toString();
-
-  }
-  /**
-   * Strips the text from the HTML tags. This is dependent on the class HTMLStripReader that comes as part of solr.
-   * @param rawString String
-   * @return String
-   */
-  public String StripHTML(String rawString) {
-     StringReader sr = new StringReader(rawString);
-     HTMLStripReader reader = new HTMLStripReader(sr);
-     try {
-         int i = 0;
-         StringBuilder sb = new StringBuilder();
-         do {
-             char[] arr = new char[4096];
-             i = reader.read(arr, 0, 4096);
-             String str = new String(arr, 0, i == -1 ? 0 : i);
-
-             str = str.replaceAll("[\\s\\s]+", " ");
-
-             sb.append(str);
-
-         } while (i != -1);
-
-         return sb.toString();
-
-     } catch (Exception ex) {
-         Logger.getLogger(Worker.class.getName()).log(Level.SEVERE, "Exception At HTMLStripper", ex);
-         return "";
-     }
- }
-
  /**
-    * Sends a post request to the server
-    * Courtesy of Grant Ingersoll @ IBM
+    * Sends a post request to the server through the submission client shared by all the workers
     * @param command String the command to be sent
     * @param URL The URL of the server
     * @return String The result of the submit
@@ -280,69 +240,7 @@ public boolean ProcessTextDocument() {
      */
  public String sendPostCommand(String command, URL url) throws
             Exception {
-        String results = null;
-        HttpClient client = new HttpClient() {};
-        if (url.getUserInfo() != null){
-            String username = url.getUserInfo().split(":")[0];
-            String password = url.getUserInfo().split(":")[1];
-            UsernamePasswordCredentials creds = new UsernamePasswordCredentials(username, password);
-            HttpState state = new HttpState();
-            state.setCredentials(AuthScope.ANY, creds);
-            client.setState(state);
-        }
-        PostMethod post = new PostMethod(url.toString());
-
-        RequestEntity re = new StringRequestEntity(command, "text/xml", "UTF-8");
-        post.setRequestEntity(re);
-        try {
-            // Execute the method.
-            int statusCode = client.executeMethod(post);
-
-            if (statusCode != HttpStatus.SC_OK) {
-                System.err.println("Method failed: " + post.getStatusLine());
-            }
-
-            // Read the response body.
-            byte[] responseBody = post.getResponseBody();
-
-            // Deal with the response.
-            // Use caution: ensure correct character encoding and is not binary data
-            results = new String(responseBody);
-        } catch (HttpException e) {
-            //System.err.println("Fatal protocol violation: " + e.getMessage());
-            //e.printStackTrace();
-            throw e;
-        } catch (Exception e) {
-            //System.err.println("Fatal transport error: " + e.getMessage());
-            //e.printStackTrace();
-            throw e;
-        } finally {
-            // Release the connection.
-            post.releaseConnection();
-            client.getHttpConnectionManager().closeIdleConnections(0); // Don not remove this line
-            // releaseConnection() is known to throw an exception, and leave the connection open, hence increase the possibility
-            // of file descriptors leak in the system. Eventually exhasting all the open files limit
-            // closeIdleConnections() will incure some overhead, but you won't risk running out of file descriptos
-
-
-        }
-        return results;
-    }
-
-    /**
-     *  Extracts the title out of a text document using Jericho parser
-     * @param source Source
-     * @return String
-     */
-    private static String getTitle(Source source) {
-        net.htmlparser.jericho.Element titleElement = source.getFirstElement(
-                net.htmlparser.jericho.HTMLElementName.TITLE);
-        if (titleElement == null) {
-            return null;
-        }
-        // TITLE element never contains other tags so just decode it collapsing whitespace:
-        return CharacterReference.decodeCollapseWhiteSpace(titleElement.
-                getContent());
+        return this.parent.Client.sendPostCommand(command, url);
     }
 
 
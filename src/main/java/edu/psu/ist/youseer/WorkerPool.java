@@ -0,0 +1,183 @@
+package edu.psu.ist.youseer;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: WorkerPool</p>
+ *
+ * <p>Description: The thread pool that runs the Worker runnables, with a bounded number of records being processed.
+ * The capacity is either a number of records or a number of bytes of record content. A record holds its room from the
+ * time it's read until it's acknowledged, through all the stages of the pipeline, and gives it back with release(). When
+ * the pool is full the ARC reader blocks in execute() until a record is acknowledged, so the bodies of a large ARC file
+ * are not buffered in memory faster than they can be parsed and submitted.
+ * The depth of the queue and the time the reader spent blocked are kept, if the reader is often blocked the workers are the
+ * bottleneck, if the queue is often empty the reader is.</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class WorkerPool {
+
+    /**
+     * The unit of the permits when the capacity is a number of bytes
+     */
+    private static final int BYTES_PER_PERMIT = 1024;
+
+    private ThreadPoolExecutor executor;
+
+    private Semaphore permits;
+
+    private int capacity;
+
+    private boolean byBytes;
+
+    private AtomicLong queuedBytes = new AtomicLong();
+
+    private AtomicLong blockedNanos = new AtomicLong();
+
+    private AtomicLong busyNanos = new AtomicLong();
+
+    private int threadsCount;
+
+    private long started = System.nanoTime();
+
+    /**
+     *
+     * @param threadsCount int the number of worker threads
+     * @param queueRecords int the maximum number of records read and not yet acknowledged, used when queueBytes is 0
+     * @param queueBytes long the maximum number of bytes of record content read and not yet acknowledged, 0 to bound by
+     * records
+     */
+    public WorkerPool(int threadsCount, int queueRecords, long queueBytes) {
+        this.threadsCount = threadsCount;
+        this.executor = new ThreadPoolExecutor(threadsCount, threadsCount, 0L, TimeUnit.MILLISECONDS,
+                                               new LinkedBlockingQueue<Runnable>());
+        this.byBytes = queueBytes > 0;
+        if (this.byBytes)
+            this.capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(1, queueBytes / BYTES_PER_PERMIT));
+        else
+            this.capacity = Math.max(threadsCount, queueRecords);
+        this.permits = new Semaphore(this.capacity);
+    }
+
+    /**
+     * Submits a record to the pool, blocks while the pool is full. The room of the record is held until release() is
+     * called for it, unless this method throws
+     * @param task Runnable the worker processing the record
+     * @param size long the size in bytes of the record content
+     * @throws InterruptedException
+     */
+    public void execute(final Runnable task, final long size) throws InterruptedException {
+        final int weight = this.weight(size);
+        if (!this.permits.tryAcquire(weight)) {
+            long start = System.nanoTime();
+            this.permits.acquire(weight);
+            this.blockedNanos.addAndGet(System.nanoTime() - start);
+        }
+        this.queuedBytes.addAndGet(size);
+        try {
+            this.executor.execute(new Runnable() {
+                public void run() {
+                    long start = System.nanoTime();
+                    try {
+                        task.run();
+                    } finally {
+                        busyNanos.addAndGet(System.nanoTime() - start);
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            this.queuedBytes.addAndGet(-size);
+            this.permits.release(weight);
+            throw ex;
+        }
+    }
+
+    /**
+     * Gives back the room of a record once it's acknowledged
+     * @param size long the size passed to execute() for the record
+     */
+    public void release(long size) {
+        this.queuedBytes.addAndGet(-size);
+        this.permits.release(this.weight(size));
+    }
+
+    /**
+     * A record larger than the whole capacity takes all of it, otherwise it could never be admitted
+     */
+    private int weight(long size) {
+        if (!this.byBytes)
+            return 1;
+        long units = (size + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT;
+        return (int) Math.max(1, Math.min(this.capacity, units));
+    }
+
+    /**
+     * @return BlockingQueue the records waiting for a free worker
+     */
+    public BlockingQueue<Runnable> getQueue() {
+        return this.executor.getQueue();
+    }
+
+    /**
+     * @return int the number of records waiting for a free worker
+     */
+    public int getQueueDepth() {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * @return int the number of records currently being processed
+     */
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    /**
+     * @return long the bytes of record content read and not yet acknowledged
+     */
+    public long getQueuedBytes() {
+        return this.queuedBytes.get();
+    }
+
+    /**
+     * @return long the total time, in milliseconds, the reader was blocked because the pool was full
+     */
+    public long getBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.blockedNanos.get());
+    }
+
+    /**
+     * @return double the share of the time of the workers spent working since the pool started, from 0 to 1
+     */
+    public double getUtilization() {
+        long elapsed = System.nanoTime() - this.started;
+        return elapsed <= 0 ? 0 : Math.min(1.0, this.busyNanos.get() / ((double) elapsed * this.threadsCount));
+    }
+
+    /**
+     * @return String a summary of the state of the pool for the log
+     */
+    public String getStatus() {
+        return "Queue depth: " + this.getQueueDepth() + ", active workers: " + this.getActiveCount() +
+               ", queued bytes: " + this.getQueuedBytes() + ", reader blocked: " + this.getBlockedMillis() + " ms" +
+               ", decode: " + this.threadsCount + " threads, " + Math.round(this.getUtilization() * 100) + "% busy";
+    }
+
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.executor.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,91 @@
+package edu.psu.ist.youseer;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>Title: HTMLTextExtractorTest</p>
+ *
+ * <p>Description: Tests the extraction of the text, the title and the meta tags of the pages</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class HTMLTextExtractorTest extends TestCase {
+
+    private static SubmitterDocument Extract(String html) {
+        SubmitterDocument doc = new SubmitterDocument("http://ist.psu.edu/", html, "text/html", "test.arc", 0);
+        HTMLTextExtractor.Extract(html, doc);
+        return doc;
+    }
+
+    public void testTagsAreDropped() {
+        assertEquals("Hello world !", Extract("<html><body><p>Hello <b>world</b></p>!</body></html>").getStrippedTextContent());
+    }
+
+    public void testScriptAndStyleAreSkipped() {
+        SubmitterDocument doc = Extract("<p>before</p><script type=\"text/javascript\">if (a < b) document.write('<p>x</p>');" +
+                                        "</SCRIPT><style>p { color: red }</style><p>after</p>");
+        assertEquals("before after", doc.getStrippedTextContent());
+    }
+
+    public void testUnterminatedScriptEndsThePage() {
+        assertEquals("text", Extract("text<script>var a = 1;").getStrippedTextContent());
+    }
+
+    public void testCommentsAreSkipped() {
+        assertEquals("a b", Extract("a<!-- <p>hidden</p> -->b").getStrippedTextContent());
+        assertEquals("a b", Extract("a<!DOCTYPE html>b").getStrippedTextContent());
+        assertEquals("a b", Extract("a<?xml version=\"1.0\"?>b").getStrippedTextContent());
+    }
+
+    public void testUnterminatedCommentEndsThePage() {
+        assertEquals("visible", Extract("visible<!-- never closed <p>hidden</p>").getStrippedTextContent());
+    }
+
+    public void testNamedAndNumericEntities() {
+        assertEquals("AT&T \u00e9t\u00e9 \u00a9 A A \u20ac", Extract("AT&amp;T &eacute;t&eacute; &copy; &#65; &#x41; &euro;").getStrippedTextContent());
+        assertEquals("\ud83d\ude00", Extract("&#x1F600;").getStrippedTextContent());
+    }
+
+    public void testInvalidEntitiesAreText() {
+        assertEquals("&unknown; & b &#xZZ;", Extract("&unknown; & b &#xZZ;").getStrippedTextContent());
+    }
+
+    public void testLiteralLessThan() {
+        assertEquals("a < b and c <3", Extract("a < b and c <3").getStrippedTextContent());
+        assertEquals("x <", Extract("x <").getStrippedTextContent());
+    }
+
+    public void testTitle() {
+        SubmitterDocument doc = Extract("<html><head><title>  Penn   State\n &amp; IST </title></head>" +
+                                        "<body><title>Second</title>Body</body></html>");
+        assertEquals("Penn State & IST", doc.getTitle());
+        assertEquals("Penn State & IST Second Body", doc.getStrippedTextContent());
+    }
+
+    public void testNoTitle() {
+        assertNull(Extract("<p>No title</p>").getTitle());
+    }
+
+    public void testMetaDescriptionAndKeywords() {
+        SubmitterDocument doc = Extract("<head><meta name=\"Description\" content=\"A page &amp; its   text\">" +
+                                        "<meta content='search, index' name=keywords>" +
+                                        "<meta name=\"description\" content=\"Ignored\">" +
+                                        "<meta http-equiv=\"refresh\" content=\"5\"></head><body>Text</body>");
+        assertEquals("A page & its text", doc.getDescription());
+        assertEquals("search, index", doc.getKeywords());
+        assertEquals("Text", doc.getStrippedTextContent());
+    }
+
+    public void testQuotedGreaterThanInAttribute() {
+        assertEquals("link", Extract("<a title=\"a > b\" href='x>y'>link</a>").getStrippedTextContent());
+    }
+
+    public void testWhitespaceIsCollapsed() {
+        assertEquals("one two three four", Extract("\n  one \t\r\n two&nbsp;&nbsp;<br/><br/>three<p> </p>four \n").getStrippedTextContent());
+    }
+}
@@ -0,0 +1,118 @@
+package edu.psu.ist.youseer;
+
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * <p>Title: NearDuplicateIndexTest</p>
+ *
+ * <p>Description: Tests the SimHash of the texts and the lookup of the near duplicates</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class NearDuplicateIndexTest extends TestCase {
+
+    private static final String PAGE = "The College of Information Sciences and Technology at Penn State offers " +
+            "undergraduate and graduate programs in information sciences, security and risk analysis, and the study " +
+            "of how people, information and technology interact in organizations and society";
+
+    public void testShortTextIsNotCompared() {
+        assertEquals(0, NearDuplicateIndex.SimHash("Home page"));
+    }
+
+    public void testSimHashIgnoresCaseAndPunctuation() {
+        assertEquals(NearDuplicateIndex.SimHash(PAGE), NearDuplicateIndex.SimHash(PAGE.toUpperCase().replace(",", " ;")));
+    }
+
+    public void testSmallEditIsNearDuplicate() {
+        long original = NearDuplicateIndex.SimHash(PAGE);
+        long edited = NearDuplicateIndex.SimHash(PAGE + " 2009");
+        assertTrue(Long.bitCount(original ^ edited) <= 8);
+    }
+
+    private static SubmitterDocument Document(String url, int offset) {
+        return new SubmitterDocument(url, "", "text/html", "/crawl/IAH-20090101.arc", offset);
+    }
+
+    public void testCheckAndAdd() {
+        NearDuplicateIndex index = new NearDuplicateIndex(3, 1000, true);
+        long simHash = NearDuplicateIndex.SimHash(PAGE);
+        SubmitterDocument first = Document("http://ist.psu.edu/", 7);
+        assertNull(index.CheckAndAdd(simHash, first));
+        assertTrue(first.getNearDuplicateEntry() >= 0);
+        SubmitterDocument copy = Document("http://ist.psu.edu/?session=1", 8);
+        NearDuplicateIndex.Canonical canonical = index.CheckAndAdd(simHash ^ 5, copy); // Two bits differ
+        assertNotNull(canonical);
+        assertEquals(-1, copy.getNearDuplicateEntry());
+        assertEquals("http://ist.psu.edu/", canonical.Url);
+        assertEquals(Fingerprint.Hash64("http://ist.psu.edu/"), canonical.UrlHash);
+        assertEquals("/crawl/IAH-20090101.arc", canonical.ContainingFile);
+        assertEquals(7, canonical.Offset);
+        assertEquals(2, canonical.Distance);
+        assertNull(index.CheckAndAdd(simHash ^ 0xF0F, Document("http://ist.psu.edu/other", 9))); // Eight bits differ
+    }
+
+    public void testUrlsAreOnlyKeptWhenAsked() {
+        NearDuplicateIndex index = new NearDuplicateIndex(3, 1000, false);
+        long simHash = NearDuplicateIndex.SimHash(PAGE);
+        index.CheckAndAdd(simHash, Document("http://ist.psu.edu/", 7));
+        NearDuplicateIndex.Canonical canonical = index.CheckAndAdd(simHash, Document("http://ist.psu.edu/copy", 8));
+        assertNull(canonical.Url);
+        assertEquals(Fingerprint.Hash64("http://ist.psu.edu/"), canonical.UrlHash);
+        assertEquals(7, canonical.Offset);
+    }
+
+    public void testRemovedDocumentIsNotFound() {
+        NearDuplicateIndex index = new NearDuplicateIndex(3, 1000, true);
+        long simHash = NearDuplicateIndex.SimHash(PAGE);
+        SubmitterDocument first = Document("http://ist.psu.edu/a", 1);
+        index.CheckAndAdd(simHash, first);
+        index.Remove(first.getNearDuplicateEntry());
+        assertNull(index.CheckAndAdd(simHash, Document("http://ist.psu.edu/b", 2))); // Takes the place of the removed one
+        assertEquals("http://ist.psu.edu/b", index.CheckAndAdd(simHash, Document("http://ist.psu.edu/c", 3)).Url);
+    }
+
+    public void testOldestDocumentsAreForgotten() {
+        NearDuplicateIndex index = new NearDuplicateIndex(3, 100, true);
+        Random random = new Random(7);
+        String[] texts = new String[250];
+        SubmitterDocument[] docs = new SubmitterDocument[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = RandomText(random, 40);
+            docs[i] = Document("http://example.org/" + i, i);
+            assertNull(index.CheckAndAdd(NearDuplicateIndex.SimHash(texts[i]), docs[i]));
+        }
+        assertEquals(100, index.size());
+        assertNull(index.CheckAndAdd(NearDuplicateIndex.SimHash(texts[10]), Document("http://example.org/copy", 0)));
+        assertEquals("http://example.org/200",
+                     index.CheckAndAdd(NearDuplicateIndex.SimHash(texts[200]), Document("http://example.org/copy", 0)).Url);
+        index.Remove(docs[20].getNearDuplicateEntry()); // Forgotten already, its slot belongs to another document
+        assertEquals("http://example.org/220",
+                     index.CheckAndAdd(NearDuplicateIndex.SimHash(texts[220]), Document("http://example.org/copy", 0)).Url);
+    }
+
+    public void testManyDocuments() {
+        NearDuplicateIndex index = new NearDuplicateIndex(3, 1 << 20, true);
+        Random random = new Random(42);
+        String[] texts = new String[5000];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = RandomText(random, 40);
+            assertNull(index.CheckAndAdd(NearDuplicateIndex.SimHash(texts[i]), Document("http://example.org/" + i, i)));
+        }
+        NearDuplicateIndex.Canonical canonical = index.CheckAndAdd(NearDuplicateIndex.SimHash(texts[42]),
+                                                                   Document("http://example.org/copy", 0));
+        assertEquals("http://example.org/42", canonical.Url);
+    }
+
+    private static String RandomText(Random random, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++)
+            sb.append(Integer.toString(random.nextInt(1000000), 36)).append(' ');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,49 @@
+package edu.psu.ist.youseer;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>Title: SubmittedFileIndexTest</p>
+ *
+ * <p>Description: Tests the in-memory index of the submitted ARC files</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class SubmittedFileIndexTest extends TestCase {
+
+    public void testNewPathIsNotSubmitted() {
+        SubmittedFileIndex index = new SubmittedFileIndex();
+        assertEquals(SubmittedFileIndex.NOT_SUBMITTED, index.Lookup("/crawl/IAH-20090101-00000.arc.gz"));
+    }
+
+    public void testAddedPathIsChecked() {
+        SubmittedFileIndex index = new SubmittedFileIndex();
+        index.Add("/crawl/IAH-20090101-00000.arc.gz");
+        assertEquals(SubmittedFileIndex.UNKNOWN, index.Lookup("/crawl/IAH-20090101-00000.arc.gz"));
+        assertEquals(SubmittedFileIndex.NOT_SUBMITTED, index.Lookup("/crawl/IAH-20090101-00001.arc.gz"));
+    }
+
+    public void testPathsAreAddedOnce() {
+        SubmittedFileIndex index = new SubmittedFileIndex();
+        index.Add("/crawl/a.arc");
+        index.Add("/crawl/a.arc");
+        index.Add("/crawl/b.arc");
+        assertEquals(2, index.size());
+        assertEquals(SubmittedFileIndex.UNKNOWN, index.Lookup("/crawl/b.arc"));
+    }
+
+    public void testNewPathsAreNotChecked() {
+        SubmittedFileIndex index = new SubmittedFileIndex();
+        for (int i = 0; i < 10000; i++)
+            index.Add("/crawl/IAH-" + i + ".arc.gz");
+        for (int i = 0; i < 10000; i++)
+            assertEquals(SubmittedFileIndex.UNKNOWN, index.Lookup("/crawl/IAH-" + i + ".arc.gz"));
+        for (int i = 10000; i < 20000; i++)
+            assertEquals(SubmittedFileIndex.NOT_SUBMITTED, index.Lookup("/crawl/IAH-" + i + ".arc.gz"));
+    }
+}
@@ -0,0 +1,50 @@
+package edu.psu.ist.youseer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import junit.framework.TestCase;
+
+/**
+ * <p>Title: UpdateRequestEntityTest</p>
+ *
+ * <p>Description: Tests the escaping of the text written to the update requests</p>
+ *
+ * <p>Copyright: Copyright Madian Khabsa @ Penn State(c) 2009</p>
+ *
+ * <p>Company: Penn State</p>
+ *
+ * @author Madian Khabsa
+ * @version 1.0
+ */
+public class UpdateRequestEntityTest extends TestCase {
+
+    private static String escape(String text) throws IOException {
+        StringWriter writer = new StringWriter();
+        UpdateRequestEntity.WriteEscaped(writer, text);
+        return writer.toString();
+    }
+
+    public void testSpecialCharactersAreEscaped() throws IOException {
+        assertEquals("a &lt;b&gt; &amp; &quot;c&quot; &apos;d&apos;", escape("a <b> & \"c\" 'd'"));
+    }
+
+    public void testControlCharactersAreDropped() throws IOException {
+        assertEquals("ab\tc\nd\re", escape("a\u0000b\tc\nd\re\u001f"));
+    }
+
+    public void testNonCharactersAreDropped() throws IOException {
+        assertEquals("ab\ufffdc", escape("a\ufffeb\ufffdc\uffff"));
+    }
+
+    public void testSurrogatePairsAreKept() throws IOException {
+        assertEquals("a\ud83d\ude00b", escape("a\ud83d\ude00b"));
+        assertEquals("\ud800\udc00", escape("\ud800\udc00"));
+    }
+
+    public void testUnpairedSurrogatesAreDropped() throws IOException {
+        assertEquals("ab", escape("a\ud83db"));
+        assertEquals("ab", escape("a\ude00b"));
+        assertEquals("a", escape("a\ud83d"));
+        assertEquals("a\ud83d\ude00", escape("a\ude00\ud83d\ude00\ud83d"));
+    }
+}